@@ -0,0 +1,94 @@
+#!/usr/bin/env bash
+
+# Measures the startup time of the JVM build and the native image
+#
+# Usage: benchmark/startup.sh [runs]
+#
+# Build both first with:
+#   ./gradlew build shadowJar nativeCompile
+#
+# Set BENCHMARK_API=1 to also time a command that resolves the region, creates the SDK clients and makes a read-only
+#   API call (requires credentials). The command only lists things, nothing is changed.
+
+set -e
+
+RUNS=${1:-10}
+SCRIPT_DIR=$(cd "$(dirname "$0")" && pwd)
+PROJECT_DIR=$(dirname "$SCRIPT_DIR")
+JAR=$(ls "$PROJECT_DIR"/build/libs/*-all.jar 2>/dev/null | head -1)
+NATIVE="$PROJECT_DIR/build/native/nativeCompile/superfluid"
+
+BINARIES=()
+
+if [ -n "$JAR" ]; then
+  BINARIES+=("java -jar $JAR")
+else
+  echo "No shadow JAR found, skipping the JVM build"
+fi
+
+if [ -x "$NATIVE" ]; then
+  BINARIES+=("$NATIVE")
+else
+  echo "No native image found, skipping the native build"
+fi
+
+if [ ${#BINARIES[@]} -eq 0 ]; then
+  echo "Nothing to benchmark"
+  exit 1
+fi
+
+# Help output covers argument handling and building the picocli command model without touching AWS
+COMMANDS=("--help" "greeneyes --help" "greeneyes cleanup --help")
+
+if [ -n "$BENCHMARK_API" ]; then
+  # A prefix that should never match so nothing is found and the command exits after the listing
+  COMMANDS+=("greeneyes cleanup --prefix superfluid-startup-benchmark-$RANDOM-")
+fi
+
+time_ms() {
+  local START END
+  START=$(date +%s%N)
+  "$@" >/dev/null 2>&1 || true
+  END=$(date +%s%N)
+  echo $(((END - START) / 1000000))
+}
+
+for COMMAND in "${COMMANDS[@]}"; do
+  echo
+  echo "== $COMMAND"
+
+  if command -v hyperfine >/dev/null; then
+    HYPERFINE_COMMANDS=()
+
+    for BINARY in "${BINARIES[@]}"; do
+      HYPERFINE_COMMANDS+=("$BINARY $COMMAND")
+    done
+
+    hyperfine --warmup 2 --runs "$RUNS" --ignore-failure "${HYPERFINE_COMMANDS[@]}"
+  else
+    for BINARY in "${BINARIES[@]}"; do
+      TOTAL=0
+      MIN=""
+
+      for ((i = 0; i < RUNS; i++)); do
+        # shellcheck disable=SC2086
+        ELAPSED=$(time_ms $BINARY $COMMAND)
+        TOTAL=$((TOTAL + ELAPSED))
+
+        if [ -z "$MIN" ] || [ "$ELAPSED" -lt "$MIN" ]; then
+          MIN=$ELAPSED
+        fi
+      done
+
+      echo "$BINARY: mean $((TOTAL / RUNS)) ms, min $MIN ms over $RUNS runs"
+    done
+  fi
+
+  # One more run of each with the phase breakdown
+  for BINARY in "${BINARIES[@]}"; do
+    echo
+    echo "$BINARY"
+    # shellcheck disable=SC2086
+    SUPERFLUID_STARTUP_TIMINGS=1 $BINARY $COMMAND 2>&1 >/dev/null | sed -n '/Startup timings/,$p' || true
+  done
+done
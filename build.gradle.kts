@@ -117,6 +117,9 @@ dependencies {
     implementation("software.amazon.awssdk:sts:$awsSdk2Version")
     implementation("software.amazon.awssdk:s3:$awsSdk2Version")
     implementation("software.amazon.awssdk:iot:$awsSdk2Version")
+    // Shared HTTP clients, configured in Shared
+    implementation("software.amazon.awssdk:apache-client:$awsSdk2Version")
+    implementation("software.amazon.awssdk:netty-nio-client:$awsSdk2Version")
     implementation("software.amazon.awssdk.iotdevicesdk:aws-iot-device-sdk:1.9.2")
 
     // Object mapper
@@ -1,6 +1,9 @@
 package com.awslabs.superfluid;
 
 import com.awslabs.superfluid.commands.Parent;
+import com.awslabs.superfluid.helpers.StartupTimings;
+import com.awslabs.superfluid.helpers.Tracing;
+import io.vavr.collection.List;
 import io.vavr.control.Option;
 import io.vavr.control.Try;
 import picocli.CommandLine;
@@ -16,6 +19,8 @@ public class App {
     public static void main(String[] args) {
 //        GreengrassCleanup.tempRun();
 //        System.exit(1);
+        StartupTimings.mark("main entered");
+
         // If the environment variable `_` exists AND it is not `java` then we need to prepend it to the args
         String[] finalArgs = Option.of(System.getenv("_"))
                 // If the variable exists, wrap it in a File object
@@ -29,15 +34,40 @@ public class App {
                 .map(App::removeToolName)
                 .get();
 
+        StartupTimings.mark("arguments handled");
+
         // NOTE: AnsiConsole::windowsInstall is to enable colors on Windows
         int returnValue = Try.withResources(AnsiConsole::windowsInstall)
                 // Run our command, if possible and get the return value to use as the exit code
-                .of(ansiConsole -> new CommandLine(new Parent()).execute(finalArgs))
+                .of(ansiConsole -> execute(finalArgs))
                 .get();
 
+        StartupTimings.mark("command finished");
+        StartupTimings.report();
+
         System.exit(returnValue);
     }
 
+    private static int execute(String[] args) {
+        CommandLine commandLine = new CommandLine(new Parent())
+                // So options like --output accept jsonl as well as JSONL
+                .setCaseInsensitiveEnumValuesAllowed(true)
+                .setExecutionStrategy(App::executeCommand);
+        StartupTimings.mark("command model built");
+
+        return commandLine.execute(args);
+    }
+
+    private static int executeCommand(CommandLine.ParseResult parseResult) {
+        // Names the trace after the command that runs, e.g. "greeneyes cleanup"
+        Tracing.setCommand(List.ofAll(parseResult.asCommandLineList())
+                .map(CommandLine::getCommandName)
+                .filter(name -> !name.isEmpty())
+                .mkString(" "));
+
+        return new CommandLine.RunLast().execute(parseResult);
+    }
+
     private static String[] removeToolName(String[] values) {
         if (values.length > 0 && (TOOL_NAME.equals(values[0]) || SHORT_TOOL_NAME.equals(values[0]))) {
             return removeLeading(values, 1);
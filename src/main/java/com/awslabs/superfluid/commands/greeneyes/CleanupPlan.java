@@ -0,0 +1,249 @@
+package com.awslabs.superfluid.commands.greeneyes;
+
+import com.awslabs.superfluid.helpers.IotHelper;
+import com.awslabs.superfluid.helpers.Shared;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import io.vavr.Tuple;
+import io.vavr.Tuple2;
+import io.vavr.collection.List;
+import io.vavr.control.Try;
+import software.amazon.awssdk.arns.Arn;
+import software.amazon.awssdk.services.iam.model.AttachedPolicy;
+import software.amazon.awssdk.services.iot.model.Policy;
+import software.amazon.awssdk.services.iot.model.RoleAliasDescription;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.stream.Stream;
+
+import static java.text.MessageFormat.format;
+
+/**
+ * Reads and writes cleanup plans. A plan is a JSON Lines file, the first line is a header with the account, region and
+ * the ordering of the cleanup steps and every other line is the resources of one Greengrass system.
+ * <p>
+ * Plans are written one system at a time to a temporary file that only replaces the plan file once it is complete, and
+ * read back one system at a time. The S3 objects are not part of the plan, only their count. The buckets are listed
+ * again while they are purged so no bucket ever has to fit in memory.
+ */
+public class CleanupPlan {
+    public static final int VERSION = 1;
+
+    public static class Writer implements AutoCloseable {
+        private final Path planFile;
+        private final Path temporaryFile;
+        private final BufferedWriter writer;
+        private boolean committed = false;
+
+        private Writer(Path planFile) throws IOException {
+            this.planFile = planFile.toAbsolutePath();
+            this.temporaryFile = Files.createTempFile(this.planFile.getParent(), this.planFile.getFileName().toString(), ".tmp");
+            this.writer = Files.newBufferedWriter(temporaryFile, StandardCharsets.UTF_8);
+            writeLine(header());
+        }
+
+        public synchronized void write(CleanupResources resources) throws IOException {
+            writeLine(encode(resources));
+        }
+
+        // Replaces the plan file, until this is called the plan file is left alone
+        public synchronized void commit() throws IOException {
+            writer.close();
+            Files.move(temporaryFile, planFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            committed = true;
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (committed) {
+                return;
+            }
+
+            writer.close();
+            Files.deleteIfExists(temporaryFile);
+        }
+
+        private void writeLine(JsonObject jsonObject) throws IOException {
+            writer.write(jsonObject.toString());
+            writer.newLine();
+        }
+    }
+
+    public static Writer writer(Path planFile) throws IOException {
+        return new Writer(planFile);
+    }
+
+    /**
+     * Reads the resources from a plan after checking that it was made for the current account and region with the
+     * same cleanup steps. The stream must be closed to close the file.
+     */
+    public static Try<Stream<CleanupResources>> read(Path planFile) {
+        return Try.of(() -> Files.newBufferedReader(planFile, StandardCharsets.UTF_8))
+                .flatMap(reader -> Try.run(() -> checkHeader(reader))
+                        .map(ignore -> reader.lines()
+                                .filter(line -> !line.isBlank())
+                                .map(line -> decode(JsonParser.parseString(line).getAsJsonObject()))
+                                .onClose(() -> Try.run(reader::close)))
+                        .onFailure(ignore -> Try.run(reader::close)));
+    }
+
+    private static JsonObject header() {
+        JsonObject header = new JsonObject();
+        header.addProperty("version", VERSION);
+        header.addProperty("account", Shared.accountId());
+        header.addProperty("region", Shared.regionString());
+        header.addProperty("created", Instant.now().toString());
+        header.add("steps", steps());
+
+        return header;
+    }
+
+    // Each step with the steps it has to wait for
+    private static JsonArray steps() {
+        JsonArray steps = new JsonArray();
+
+        List.of(CleanupStep.values())
+                .forEach(step -> {
+                    JsonObject jsonObject = new JsonObject();
+                    jsonObject.addProperty("step", step.name());
+                    jsonObject.add("after", strings(step.dependencies().map(CleanupStep::name)));
+                    steps.add(jsonObject);
+                });
+
+        return steps;
+    }
+
+    private static void checkHeader(BufferedReader reader) throws IOException {
+        String line = reader.readLine();
+
+        if (line == null) {
+            throw new IllegalArgumentException("The plan is empty");
+        }
+
+        JsonObject header = JsonParser.parseString(line).getAsJsonObject();
+
+        if (!header.has("version") || (header.get("version").getAsInt() != VERSION)) {
+            throw new IllegalArgumentException(format("The plan has an unsupported version, expected version {0}", VERSION));
+        }
+
+        String account = header.get("account").getAsString();
+        String region = header.get("region").getAsString();
+
+        if (!account.equals(Shared.accountId()) || !region.equals(Shared.regionString())) {
+            throw new IllegalArgumentException(format("The plan was made for the account {0} in {1} but the current account is {2} in {3}",
+                    account, region, Shared.accountId(), Shared.regionString()));
+        }
+
+        // The resources were planned for a specific ordering, don't apply them with a different one
+        if (!header.get("steps").equals(steps())) {
+            throw new IllegalArgumentException("The plan was made with different cleanup steps, create the plan again");
+        }
+    }
+
+    static JsonObject encode(CleanupResources resources) {
+        JsonObject jsonObject = new JsonObject();
+        jsonObject.addProperty("thing", resources.thingName());
+        jsonObject.addProperty("bucket", resources.bucketName());
+        jsonObject.addProperty("thingGroup", resources.thingGroupName());
+        jsonObject.addProperty("objectCount", resources.tryObjectCount().get());
+        jsonObject.addProperty("thingsInThingGroupCount", resources.tryThingsInThingGroupCount().get());
+        jsonObject.add("principals", strings(resources.tryListAttachedPrincipals().get().map(Arn::toString)));
+
+        JsonArray attachedIotPolicies = new JsonArray();
+        resources.tryListAttachedIotPolicies().get()
+                .forEach(tuple -> {
+                    JsonObject target = new JsonObject();
+                    target.addProperty("target", tuple._1.toString());
+                    target.add("policies", iotPolicies(tuple._2));
+                    attachedIotPolicies.add(target);
+                });
+        jsonObject.add("attachedIotPolicies", attachedIotPolicies);
+        jsonObject.add("abandonedIotPolicies", iotPolicies(resources.tryListAbandonedIotPolicies().get()));
+
+        JsonArray attachedRolePolicies = new JsonArray();
+        resources.tryListAttachedRolePolicies().get()
+                .forEach(attachedPolicy -> attachedRolePolicies.add(namedArn(attachedPolicy.policyName(), attachedPolicy.policyArn())));
+        jsonObject.add("attachedRolePolicies", attachedRolePolicies);
+
+        JsonArray abandonedRolePolicies = new JsonArray();
+        resources.tryListAbandonedRolePolicies().get()
+                .forEach(policy -> abandonedRolePolicies.add(namedArn(policy.policyName(), policy.arn())));
+        jsonObject.add("abandonedRolePolicies", abandonedRolePolicies);
+
+        jsonObject.addProperty("roleAliasRole", resources.tryRoleAliasDescription().get().roleArn());
+
+        return jsonObject;
+    }
+
+    static CleanupResources decode(JsonObject jsonObject) {
+        List<Arn> principals = stringList(jsonObject.getAsJsonArray("principals")).map(Arn::fromString);
+        List<Tuple2<Arn, List<Policy>>> attachedIotPolicies = objectList(jsonObject.getAsJsonArray("attachedIotPolicies"))
+                .map(target -> Tuple.of(Arn.fromString(target.get("target").getAsString()), iotPolicyList(target.getAsJsonArray("policies"))));
+        List<AttachedPolicy> attachedRolePolicies = objectList(jsonObject.getAsJsonArray("attachedRolePolicies"))
+                .map(policy -> AttachedPolicy.builder().policyName(policy.get("name").getAsString()).policyArn(policy.get("arn").getAsString()).build());
+        // The attachment count isn't kept, the policies are checked again before they are deleted
+        List<software.amazon.awssdk.services.iam.model.Policy> abandonedRolePolicies = objectList(jsonObject.getAsJsonArray("abandonedRolePolicies"))
+                .map(policy -> software.amazon.awssdk.services.iam.model.Policy.builder().policyName(policy.get("name").getAsString()).arn(policy.get("arn").getAsString()).build());
+        String thingName = jsonObject.get("thing").getAsString();
+
+        return ImmutableCleanupResources.builder()
+                .thingName(thingName)
+                .bucketName(jsonObject.get("bucket").getAsString())
+                .thingGroupName(jsonObject.get("thingGroup").getAsString())
+                .tryObjectCount(Try.success(jsonObject.get("objectCount").getAsLong()))
+                .tryThingsInThingGroupCount(Try.success(jsonObject.get("thingsInThingGroupCount").getAsLong()))
+                .tryListAttachedPrincipals(Try.success(principals))
+                .tryListAttachedCertificates(Try.success(IotHelper.getCertificatesFromPrincipalList(principals)))
+                .tryListAttachedIotPolicies(Try.success(attachedIotPolicies))
+                .tryListAbandonedIotPolicies(Try.success(iotPolicyList(jsonObject.getAsJsonArray("abandonedIotPolicies"))))
+                .tryListAttachedRolePolicies(Try.success(attachedRolePolicies))
+                .tryListAbandonedRolePolicies(Try.success(abandonedRolePolicies))
+                .tryRoleAliasDescription(Try.success(RoleAliasDescription.builder()
+                        .roleAlias(Data.tesRoleAliasName(thingName))
+                        .roleArn(jsonObject.get("roleAliasRole").getAsString())
+                        .build()))
+                .errors(List.empty())
+                .build();
+    }
+
+    private static JsonArray strings(List<String> values) {
+        JsonArray jsonArray = new JsonArray();
+        values.forEach(jsonArray::add);
+        return jsonArray;
+    }
+
+    private static List<String> stringList(JsonArray jsonArray) {
+        return List.ofAll(jsonArray).map(JsonElement::getAsString);
+    }
+
+    private static List<JsonObject> objectList(JsonArray jsonArray) {
+        return List.ofAll(jsonArray).map(JsonElement::getAsJsonObject);
+    }
+
+    private static JsonObject namedArn(String name, String arn) {
+        JsonObject jsonObject = new JsonObject();
+        jsonObject.addProperty("name", name);
+        jsonObject.addProperty("arn", arn);
+        return jsonObject;
+    }
+
+    private static JsonArray iotPolicies(List<Policy> policies) {
+        JsonArray jsonArray = new JsonArray();
+        policies.forEach(policy -> jsonArray.add(namedArn(policy.policyName(), policy.policyArn())));
+        return jsonArray;
+    }
+
+    private static List<Policy> iotPolicyList(JsonArray jsonArray) {
+        return objectList(jsonArray)
+                .map(policy -> Policy.builder().policyName(policy.get("name").getAsString()).policyArn(policy.get("arn").getAsString()).build());
+    }
+}
@@ -0,0 +1,42 @@
+package com.awslabs.superfluid.commands.greeneyes;
+
+import io.vavr.Tuple2;
+import io.vavr.collection.List;
+import io.vavr.control.Try;
+import org.immutables.value.Value;
+import software.amazon.awssdk.arns.Arn;
+import software.amazon.awssdk.services.iam.model.AttachedPolicy;
+import software.amazon.awssdk.services.iot.model.Policy;
+import software.amazon.awssdk.services.iot.model.RoleAliasDescription;
+
+// Everything that was discovered for a single Greengrass system before it is cleaned up
+@Value.Immutable
+public abstract class CleanupResources {
+    public abstract String thingName();
+
+    public abstract String bucketName();
+
+    public abstract String thingGroupName();
+
+    public abstract Try<Long> tryObjectCount();
+
+    // Capped at two, we only need to know if this thing is the only member
+    public abstract Try<Long> tryThingsInThingGroupCount();
+
+    public abstract Try<List<Arn>> tryListAttachedPrincipals();
+
+    public abstract Try<List<Arn>> tryListAttachedCertificates();
+
+    public abstract Try<List<Tuple2<Arn, List<Policy>>>> tryListAttachedIotPolicies();
+
+    public abstract Try<List<Policy>> tryListAbandonedIotPolicies();
+
+    public abstract Try<List<AttachedPolicy>> tryListAttachedRolePolicies();
+
+    public abstract Try<List<software.amazon.awssdk.services.iam.model.Policy>> tryListAbandonedRolePolicies();
+
+    public abstract Try<RoleAliasDescription> tryRoleAliasDescription();
+
+    // Errors that occurred while the resources were being discovered
+    public abstract List<String> errors();
+}
@@ -0,0 +1,34 @@
+package com.awslabs.superfluid.commands.greeneyes;
+
+import io.vavr.collection.List;
+
+// The steps are declared in an order that satisfies their dependencies
+public enum CleanupStep {
+    DELETE_S3_OBJECTS,
+    DELETE_S3_BUCKET(DELETE_S3_OBJECTS),
+    DELETE_THING_GROUP,
+    DETACH_THING_PRINCIPALS,
+    DETACH_IOT_POLICIES,
+    // Certificates can only be deleted once they're detached from the thing and have no policies attached
+    DELETE_CERTIFICATES(DETACH_THING_PRINCIPALS, DETACH_IOT_POLICIES),
+    DELETE_IOT_POLICIES(DELETE_CERTIFICATES),
+    DETACH_ROLE_POLICIES,
+    DELETE_IAM_POLICIES(DETACH_ROLE_POLICIES),
+    // Roles can't be deleted while they still have policies attached
+    DELETE_ROLE(DETACH_ROLE_POLICIES),
+    DELETE_ROLE_ALIAS,
+    DELETE_CORE_DEVICE,
+    // The core device refers to the thing and a thing can't be deleted while it still has principals attached
+    DELETE_THING(DELETE_CORE_DEVICE, DETACH_THING_PRINCIPALS);
+
+    private final List<CleanupStep> dependencies;
+
+    CleanupStep(CleanupStep... dependencies) {
+        this.dependencies = List.of(dependencies);
+    }
+
+    // Only the real ordering constraints between the steps, everything else can run in parallel
+    public List<CleanupStep> dependencies() {
+        return dependencies;
+    }
+}
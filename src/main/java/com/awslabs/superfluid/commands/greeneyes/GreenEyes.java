@@ -1,14 +1,68 @@
 package com.awslabs.superfluid.commands.greeneyes;
 
+import com.awslabs.superfluid.helpers.CallStats;
+import com.awslabs.superfluid.helpers.IdentityCache;
+import com.awslabs.superfluid.helpers.Inventory;
+import com.awslabs.superfluid.helpers.Output;
 import com.awslabs.superfluid.helpers.Shared;
+import com.awslabs.superfluid.helpers.Tracing;
 import picocli.CommandLine;
 
+import java.nio.file.Path;
+
 @CommandLine.Command(name = "greeneyes", mixinStandardHelpOptions = true,
-        subcommands = {GreenEyesCleanup.class})
+        subcommands = {GreenEyesCleanup.class, GreenEyesInventory.class, GreenEyesSync.class})
 public class GreenEyes {
     // Shared with sub-commands via CommandLine.ScopeType.INHERIT
     @CommandLine.Option(names = "-v", scope = CommandLine.ScopeType.INHERIT)
     public void setVerbose(boolean[] verbose) {
         Shared.setVerbose(verbose);
     }
+
+    @CommandLine.Option(names = "--max-connections", scope = CommandLine.ScopeType.INHERIT, paramLabel = "count",
+            description = "The maximum number of HTTP connections shared by all AWS clients (default: " + Shared.DEFAULT_MAX_CONNECTIONS + ")")
+    public void setMaxConnections(int maxConnections) {
+        Shared.setMaxConnections(maxConnections);
+    }
+
+    @CommandLine.Option(names = "--no-cache", scope = CommandLine.ScopeType.INHERIT,
+            description = "Don't use or update the local cache of the account ID, region and inventory")
+    public void setNoCache(boolean noCache) {
+        IdentityCache.setEnabled(!noCache);
+        Inventory.setEnabled(!noCache);
+    }
+
+    @CommandLine.Option(names = "--output", scope = CommandLine.ScopeType.INHERIT, paramLabel = "format",
+            description = "The output format, one of ${COMPLETION-CANDIDATES} (default: text). jsonl writes an event for every AWS call to stdout and everything else to stderr.")
+    public void setOutput(Output.Format format) {
+        Output.setFormat(format);
+    }
+
+    @CommandLine.Option(names = "--xray", scope = CommandLine.ScopeType.INHERIT,
+            description = "Send a trace of the run to AWS X-Ray with a subsegment for every phase and every AWS call")
+    public void setXRay(boolean xRay) {
+        if (xRay) {
+            Tracing.enableXRay();
+        }
+    }
+
+    @CommandLine.Option(names = "--trace-file", scope = CommandLine.ScopeType.INHERIT, paramLabel = "path",
+            description = "Write the trace of the run to a file, one X-Ray segment document per line")
+    public void setTraceFile(Path traceFile) {
+        Tracing.enableFile(traceFile);
+    }
+
+    @CommandLine.Option(names = "--stats", scope = CommandLine.ScopeType.INHERIT,
+            description = "Print the calls, failures, retries, throttled requests and latency percentiles of each AWS operation when the command exits")
+    public void setStats(boolean stats) {
+        if (stats) {
+            CallStats.enable();
+        }
+    }
+
+    @CommandLine.Option(names = "--stats-format", scope = CommandLine.ScopeType.INHERIT, paramLabel = "format",
+            description = "The format of the --stats summary, one of ${COMPLETION-CANDIDATES} (default: table). Implies --stats.")
+    public void setStatsFormat(CallStats.Format format) {
+        CallStats.enable(format);
+    }
 }
@@ -1,9 +1,12 @@
 package com.awslabs.superfluid.commands.greeneyes;
 
 import com.awslabs.superfluid.helpers.*;
+import io.vavr.Function0;
+import io.vavr.Lazy;
 import io.vavr.Tuple;
 import io.vavr.Tuple2;
 import io.vavr.collection.List;
+import io.vavr.control.Option;
 import io.vavr.control.Try;
 import picocli.CommandLine;
 import software.amazon.awssdk.arns.Arn;
@@ -13,20 +16,74 @@ import software.amazon.awssdk.services.iam.model.DeleteRoleResponse;
 import software.amazon.awssdk.services.iam.model.DetachRolePolicyResponse;
 import software.amazon.awssdk.services.iot.model.*;
 import software.amazon.awssdk.services.s3.model.DeleteBucketResponse;
-import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
-import software.amazon.awssdk.services.s3.model.S3Object;
 
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.Collectors;
 
+import static com.awslabs.superfluid.commands.greeneyes.CleanupStep.*;
 import static com.awslabs.superfluid.commands.greeneyes.Data.*;
+import static com.awslabs.superfluid.helpers.Journal.journal;
+import static com.awslabs.superfluid.helpers.ParallelHelper.async;
+import static com.awslabs.superfluid.helpers.ParallelHelper.traverse;
 import static com.awslabs.superfluid.helpers.Shared.print;
 import static com.awslabs.superfluid.helpers.Shared.println;
 import static java.text.MessageFormat.format;
 
 @CommandLine.Command(name = "cleanup", mixinStandardHelpOptions = true)
 public class GreenEyesCleanup implements Runnable {
-    @CommandLine.Parameters(description = "The thing name of the Greengrass system", paramLabel = "thing-name")
-    private String thingName;
+    // How many cleanup steps of one Greengrass system can run at the same time, on average
+    private static final int STEPS_PER_SYSTEM = 4;
+
+    @CommandLine.Parameters(description = "The thing name(s) of the Greengrass system(s)", paramLabel = "thing-name", arity = "0..*")
+    private java.util.List<String> thingNames = new ArrayList<>();
+
+    @CommandLine.Option(names = "--from-file", description = "Read the thing names from a file, one per line", paramLabel = "file")
+    private Path fromFile;
+
+    @CommandLine.Option(names = "--stdin", description = "Read the thing names from stdin, one per line")
+    private boolean fromStdin;
+
+    @CommandLine.Option(names = "--thing-group", description = "Clean up every thing in this thing group", paramLabel = "thing-group-name")
+    private String fromThingGroup;
+
+    @CommandLine.Option(names = "--prefix", description = "Clean up every thing whose name starts with this prefix", paramLabel = "prefix")
+    private String fromPrefix;
+
+    @CommandLine.Option(names = "--workers", description = "The number of Greengrass systems to process at the same time (default: ${DEFAULT-VALUE})", defaultValue = "" + ParallelHelper.DEFAULT_WORKERS)
+    private int workers;
+
+    @CommandLine.Option(names = "--s3-listing-parallelism", description = "The number of S3 prefixes to list at the same time in each bucket (default: ${DEFAULT-VALUE})", defaultValue = "" + S3Helper.DEFAULT_LISTING_PARALLELISM)
+    private int s3ListingParallelism;
+
+    @CommandLine.Option(names = "--max-retries", description = "The number of times a request that failed with a transient error is retried (default: ${DEFAULT-VALUE})", defaultValue = "" + RetryHelper.DEFAULT_MAX_RETRIES)
+    private int maxRetries;
+
+    @CommandLine.Option(names = "--from-index", description = "Plan the cleanup from the local inventory for anything it has seen in the last hour, everything else is looked up as usual. What decides whether something is deleted is checked against AWS again before deleting.")
+    private boolean fromIndex;
+
+    @CommandLine.Option(names = "--plan-out", description = "Write the resources that would be cleaned up to a plan file and exit without changing anything", paramLabel = "file")
+    private Path planOut;
+
+    @CommandLine.Option(names = "--apply", description = "Clean up the resources in a plan file written by --plan-out instead of looking them up again", paramLabel = "file")
+    private Path applyFile;
+
+    @CommandLine.Option(names = "--restart", description = "Discover everything again instead of resuming cleanups that were interrupted")
+    private boolean restart;
+
+    @CommandLine.Option(names = {"-y", "--yes"}, description = "Proceed without asking for confirmation")
+    private boolean assumeYes;
+
+    private boolean batchMode = false;
+
+    // The cleanup steps of every system share these threads, created when the first system is cleaned up
+    private final Lazy<ExecutorService> lazyStepExecutor = Lazy.of(() -> ParallelHelper.daemonThreadPool(Math.max(workers, 1) * STEPS_PER_SYSTEM, "superfluid-cleanup"));
 
     public static void tempRun() {
         new GreenEyesCleanup().run();
@@ -34,185 +91,551 @@ public class GreenEyesCleanup implements Runnable {
 
     @Override
     public void run() {
+        RetryHelper.setMaxRetries(maxRetries);
+        // The checks done when a plan is applied always go to AWS
+        Inventory.setReadEnabled(fromIndex && (applyFile == null), Inventory.DEFAULT_MAX_AGE);
+
+        if (applyFile != null) {
+            applyPlan();
+            return;
+        }
+
+        List<String> thingNamesToCleanUp = resolveThingNames();
+        batchMode = thingNamesToCleanUp.size() > 1;
+
+        if (thingNamesToCleanUp.isEmpty()) {
+            println("No thing names were specified or found, nothing to do");
+            return;
+        }
+
         println("Analyzing Greengrass resources...");
 
+        if (planOut != null) {
+            writePlan(thingNamesToCleanUp);
+            return;
+        }
+
+        // Run the discovery for each thing, up to the requested number of things at once
+        List<CleanupResources> resourcesList = ParallelHelper.parallelMap(thingNamesToCleanUp, workers,
+                thingName -> resumeOrElse(thingName, () -> analyze(thingName)));
+
+        exitOnErrors(resourcesList);
+
+        if (fromIndex) {
+            // The index is only good enough for planning, it doesn't see changes made outside this tool. What decides
+            //   whether something is deleted is checked against AWS again, like when a plan is applied.
+            Inventory.setReadEnabled(false, Inventory.DEFAULT_MAX_AGE);
+            resourcesList = ParallelHelper.parallelMap(resourcesList, workers,
+                    resources -> journal().started(resources.thingName()) ? resources : revalidate(resources));
+            exitOnErrors(resourcesList);
+        }
+
+        proceed(resourcesList);
+    }
+
+    private void writePlan(List<String> thingNamesToCleanUp) {
+        Try<List<CleanupResources>> tryResourcesList = Try.withResources(() -> CleanupPlan.writer(planOut))
+                .of(writer -> {
+                    // Each system is written out as soon as it has been analyzed
+                    List<CleanupResources> resourcesList = ParallelHelper.parallelMap(thingNamesToCleanUp, workers,
+                            thingName -> writeToPlan(writer, analyze(thingName)));
+
+                    // A plan is only written when everything could be analyzed
+                    if (resourcesList.forAll(resources -> resources.errors().isEmpty())) {
+                        writer.commit();
+                    }
+
+                    return resourcesList;
+                });
+
+        if (tryResourcesList.isFailure()) {
+            println("Failed to write the plan {} [{}]", planOut, tryResourcesList.getCause().getMessage());
+            System.exit(1);
+        }
+
+        exitOnErrors(tryResourcesList.get());
+        tryResourcesList.get().forEach(this::displaySummaryOfOperations);
+
+        println("Wrote the plan for {} Greengrass system(s) to {}, nothing was changed", tryResourcesList.get().size(), planOut);
+        println("Run the cleanup with --apply {} to carry it out", planOut);
+        println();
+    }
+
+    private CleanupResources writeToPlan(CleanupPlan.Writer writer, CleanupResources resources) {
+        if (resources.errors().isEmpty()) {
+            Try.run(() -> writer.write(resources)).get();
+        }
+
+        return resources;
+    }
+
+    private void applyPlan() {
+        Try<List<CleanupResources>> tryPlanned = CleanupPlan.read(applyFile)
+                .flatMap(stream -> Try.withResources(() -> stream).of(List::ofAll));
+
+        if (tryPlanned.isFailure()) {
+            println("Failed to read the plan {} [{}]", applyFile, tryPlanned.getCause().getMessage());
+            System.exit(1);
+        }
+
+        batchMode = tryPlanned.get().size() > 1;
+
+        println("Checking the plan for {} Greengrass system(s) against the account...", tryPlanned.get().size());
+
+        List<CleanupResources> resourcesList = ParallelHelper.parallelMap(tryPlanned.get(), workers,
+                planned -> resumeOrElse(planned.thingName(), () -> revalidate(planned)));
+
+        exitOnErrors(resourcesList);
+        proceed(resourcesList);
+    }
+
+    /**
+     * Picks up the cleanup of a system where an earlier run left off if the journal shows it was interrupted
+     */
+    private CleanupResources resumeOrElse(String thingName, Function0<CleanupResources> otherwise) {
+        if (restart) {
+            journal().finish(thingName);
+            return otherwise.get();
+        }
+
+        Option<CleanupResources> resumed = journal().planned(thingName)
+                .flatMap(plan -> Try.of(() -> CleanupPlan.decode(plan)).toOption());
+
+        if (resumed.isEmpty()) {
+            return otherwise.get();
+        }
+
+        println("Resuming the interrupted cleanup of {}", thingName);
+
+        // Once deleting has started the resources can't be checked again (e.g. a detached policy has no targets) but
+        //   they were checked right before the deleting started
+        return journal().started(thingName) ? resumed.get() : revalidate(resumed.get());
+    }
+
+    /**
+     * Checks what may have changed since the plan was made and could make a planned delete unsafe, resources that other
+     * things started using in the meantime are no longer deleted. Everything else in the plan is used as is.
+     */
+    private CleanupResources revalidate(CleanupResources planned) {
+        // Analyzing keeps the policy lookups for the rest of the run, and with --from-index they came from the index
+        planned.tryListAbandonedIotPolicies().forEach(policies -> policies.forEach(policy -> IotHelper.invalidatePolicy(policy.policyName())));
+        planned.tryListAbandonedRolePolicies().forEach(policies -> policies.forEach(policy -> IamHelper.invalidatePolicy(policy.arn())));
+
+        // The purge is skipped for a bucket that looked empty, anything added since would make deleting the bucket fail
+        CompletableFuture<Try<Long>> objectCountFuture = hasObjects(planned.tryObjectCount()) ?
+                CompletableFuture.completedFuture(planned.tryObjectCount()) :
+                async(() -> S3Helper.countObjectsInBucket(planned.bucketName(), s3ListingParallelism));
+
+        CompletableFuture<Try<Long>> thingsInThingGroupCountFuture = willDeleteThingGroup(planned.tryThingsInThingGroupCount()) ?
+                async(() -> IotHelper.countThingsInThingGroup(planned.thingGroupName(), 2)) :
+                CompletableFuture.completedFuture(planned.tryThingsInThingGroupCount());
+
+        CompletableFuture<Try<List<Policy>>> abandonedIotPoliciesFuture = traverse(planned.tryListAbandonedIotPolicies(),
+                policy -> async(() -> IotHelper.countTargetsForIotPolicy(policy.policyName(), 2).map(count -> Tuple.of(policy, count))))
+                .thenApply(tryTuples -> tryTuples.map(list -> list.filter(tuple -> tuple._2 == 1).map(tuple -> tuple._1)));
+
+        CompletableFuture<Try<List<software.amazon.awssdk.services.iam.model.Policy>>> abandonedRolePoliciesFuture = traverse(planned.tryListAbandonedRolePolicies(),
+                policy -> async(() -> IamHelper.attachedPolicyToPolicy(AttachedPolicy.builder().policyName(policy.policyName()).policyArn(policy.arn()).build())))
+                .thenApply(tryPolicies -> tryPolicies.map(list -> list.filter(policy -> policy.attachmentCount() == 1)));
+
+        Try<Long> tryObjectCount = objectCountFuture.join();
+        Try<Long> tryThingsInThingGroupCount = thingsInThingGroupCountFuture.join();
+        Try<List<Policy>> tryListAbandonedIotPolicies = abandonedIotPoliciesFuture.join();
+        Try<List<software.amazon.awssdk.services.iam.model.Policy>> tryListAbandonedRolePolicies = abandonedRolePoliciesFuture.join();
+
+        List<String> errorsToLog = List.empty();
+        errorsToLog = errorsToLog.appendAll(createErrorLogs(List.of(tryObjectCount), format("Failed to list the objects in the S3 bucket {0}", planned.bucketName())));
+        errorsToLog = errorsToLog.appendAll(createErrorLogs(List.of(tryThingsInThingGroupCount), format("Failed to list the things in the thing group {0}", planned.thingGroupName())));
+        errorsToLog = errorsToLog.appendAll(createErrorLogs(List.of(tryListAbandonedIotPolicies), "Failed to check the abandoned IoT policies"));
+        errorsToLog = errorsToLog.appendAll(createErrorLogs(List.of(tryListAbandonedRolePolicies), "Failed to check the abandoned IAM policies"));
+
+        return ImmutableCleanupResources.copyOf(planned)
+                .withTryObjectCount(tryObjectCount)
+                .withTryThingsInThingGroupCount(tryThingsInThingGroupCount)
+                .withTryListAbandonedIotPolicies(tryListAbandonedIotPolicies)
+                .withTryListAbandonedRolePolicies(tryListAbandonedRolePolicies)
+                .withErrors(errorsToLog);
+    }
+
+    private void exitOnErrors(List<CleanupResources> resourcesList) {
+        // Log any errors and bail out if there are any
+        if (logErrors(resourcesList.flatMap(resources -> labelErrors(resources.thingName(), resources.errors())))) {
+            println("Cannot continue when errors are present");
+            println();
+            System.exit(1);
+        }
+    }
+
+    private void proceed(List<CleanupResources> resourcesList) {
+        resourcesList.forEach(this::displaySummaryOfOperations);
+
+        if (resourcesList.size() > 1) {
+            println("The operations above will be run for {} Greengrass systems", resourcesList.size());
+            println();
+        }
+
+        askToProceed();
+
+        // Delete everything
+        List<String> errorsToLog = ParallelHelper.parallelMap(resourcesList, workers,
+                        resources -> labelErrors(resources.thingName(), journaledDeleteEverything(resources)))
+                .flatMap(errors -> errors);
+
+        // Log any errors
+        logErrors(errorsToLog);
+    }
+
+    private List<String> resolveThingNames() {
+        List<String> names = List.ofAll(thingNames);
+
+        if (fromFile != null) {
+            names = names.appendAll(readThingNames(Try.of(() -> Files.readAllLines(fromFile)), format("Failed to read thing names from {0}", fromFile)));
+        }
+
+        if (fromStdin) {
+            names = names.appendAll(readThingNames(Try.of(() -> new BufferedReader(new InputStreamReader(System.in)).lines().collect(Collectors.toList())), "Failed to read thing names from stdin"));
+        }
+
+        if (fromThingGroup != null) {
+            names = names.appendAll(readThingNames(IotHelper.listThingsInThingGroup(fromThingGroup).map(List::asJava), format("Failed to list the things in the thing group {0}", fromThingGroup)));
+        }
+
+        if (fromPrefix != null) {
+            names = names.appendAll(readThingNames(IotHelper.listThingNamesWithPrefix(fromPrefix).map(List::asJava), format("Failed to list the things with the prefix {0}", fromPrefix)));
+        }
+
+        return names.distinct();
+    }
+
+    private List<String> readThingNames(Try<java.util.List<String>> tryLines, String message) {
+        if (logErrors(createErrorLogs(List.of(tryLines), message))) {
+            println("Cannot continue when errors are present");
+            println();
+            System.exit(1);
+        }
+
+        return List.ofAll(tryLines.get())
+                .map(String::trim)
+                // Skip blank lines and comments
+                .filter(line -> !line.isEmpty())
+                .filter(line -> !line.startsWith("#"));
+    }
+
+    private CleanupResources analyze(String thingName) {
         // List everything
         String bucketName = s3BucketName(thingName);
         String thingGroupName = thingGroupName(thingName);
+        String tesRoleName = tesRoleName(thingName);
+        String tesRoleAliasName = tesRoleAliasName(thingName);
 
-        // List all the S3 objects we need to clean up
-        Try<List<S3Object>> tryObjectList = S3Helper.listObjectsInBucket(bucketName);
+        // Start every independent list/describe call at once, dependent calls are chained so they start as soon as
+        //   their inputs are available
 
-        List<String> errorsToLog = List.empty();
-        errorsToLog = errorsToLog.appendAll(createErrorLogs(List.of(tryObjectList), format("Failed to list the objects in the S3 bucket {0}", bucketName)));
+        // Count the S3 objects we need to clean up, they're listed again while they're deleted so they're never all in memory
+        CompletableFuture<Try<Long>> objectCountFuture = async(() -> S3Helper.countObjectsInBucket(bucketName, s3ListingParallelism));
 
-        // List all the things in the thing group so we can sanity check that we're not deleting a group that is still in use
-        Try<List<String>> tryThingsInThingGroupList = IotHelper.listThingsInThingGroup(thingGroupName);
-        errorsToLog = errorsToLog.appendAll(createErrorLogs(List.of(tryThingsInThingGroupList), format("Failed to list the things in the thing group {0}", thingGroupName)));
+        // Count the things in the thing group so we can sanity check that we're not deleting a group that is still in use
+        CompletableFuture<Try<Long>> thingsInThingGroupCountFuture = async(() -> IotHelper.countThingsInThingGroup(thingGroupName, 2));
 
         // List all the principals attached to the thing (we only handle certificates)
-        Try<List<Arn>> tryListAttachedPrincipals = IotHelper.listPrincipalsAttachedToThing(thingName).map(list -> list.map(Arn::fromString));
-        errorsToLog = errorsToLog.appendAll(createErrorLogs(List.of(tryThingsInThingGroupList), format("Failed to list the principals attached to the thing {0}", thingName)));
-
-        Try<List<Arn>> tryListAttachedCertificates = tryListAttachedPrincipals.map(IotHelper::getCertificatesFromPrincipalList);
+        CompletableFuture<Try<List<Arn>>> attachedPrincipalsFuture = async(() -> IotHelper.listPrincipalsAttachedToThing(thingName).map(list -> list.map(Arn::fromString)));
 
         // List all the policies attached to the principals
-        Try<List<Tuple2<Arn, List<Policy>>>> tryListAttachedIotPolicies = tryListAttachedPrincipals
-                .map(principals -> principals.map(principal -> IotHelper.listAttachedPolicies(principal).get()));
-        errorsToLog = errorsToLog.appendAll(createErrorLogs(List.of(tryListAttachedIotPolicies), format("Failed to list the attached IoT policies")));
+        CompletableFuture<Try<List<Tuple2<Arn, List<Policy>>>>> attachedIotPoliciesFuture = attachedPrincipalsFuture
+                .thenCompose(tryPrincipals -> traverse(tryPrincipals, principal -> async(() -> IotHelper.listAttachedPolicies(principal))));
 
-        Try<List<Policy>> tryListAbandonedIotPolicies = tryListAttachedIotPolicies
-                // Just get the policies
-                .map(list -> list.flatMap(tuple -> tuple._2))
-                // Get only distinct policies by their names
-                .map(list -> list.distinctBy(Policy::policyName))
-                // Get the targets for each policy and catch failures
-                .map(list -> list.map(policy -> Tuple.of(policy, IotHelper.listTargetsForIotPolicy(policy.policyName()).get())))
-                // Any policy with one attachment will be abandoned
-                .map(list -> list.filter(tuple -> tuple._2.size() == 1))
-                // Just get the policies
-                .map(list -> list.map(tuple -> tuple._1));
-        errorsToLog = errorsToLog.appendAll(createErrorLogs(List.of(tryListAbandonedIotPolicies), format("Failed to list the abandoned IoT policies")));
+        CompletableFuture<Try<List<Policy>>> abandonedIotPoliciesFuture = attachedIotPoliciesFuture
+                // Just get the policies and only distinct policies by their names
+                .thenApply(tryAttachedPolicies -> tryAttachedPolicies.map(list -> list.flatMap(tuple -> tuple._2).distinctBy(Policy::policyName)))
+                // Count the targets for each policy, stop at two since that's enough to know it's shared
+                .thenCompose(tryPolicies -> traverse(tryPolicies, policy -> async(() -> IotHelper.countTargetsForIotPolicy(policy.policyName(), 2).map(count -> Tuple.of(policy, count)))))
+                // Any policy with one attachment will be abandoned, just get the policies
+                .thenApply(tryTuples -> tryTuples.map(list -> list.filter(tuple -> tuple._2 == 1).map(tuple -> tuple._1)));
 
         // List all the IAM policies attached to the TES role
-        Try<List<AttachedPolicy>> tryListAttachedRolePolicies = IamHelper.listAttachedRolePolicies(tesRoleName(thingName));
-        errorsToLog = errorsToLog.appendAll(createErrorLogs(List.of(tryListAttachedRolePolicies), format("Failed to list the IAM policies attached to the TES role {0}", tesRoleName(thingName))));
+        CompletableFuture<Try<List<AttachedPolicy>>> attachedRolePoliciesFuture = async(() -> IamHelper.listAttachedRolePolicies(tesRoleName));
 
         // List all the IAM policies that will be abandoned after they're detached
-        Try<List<software.amazon.awssdk.services.iam.model.Policy>> tryListAbandonedRolePolicies = tryListAttachedRolePolicies
+        CompletableFuture<Try<List<software.amazon.awssdk.services.iam.model.Policy>>> abandonedRolePoliciesFuture = attachedRolePoliciesFuture
                 // Get the attachment count
-                .map(rolePolicies -> rolePolicies.map(rolePolicy -> IamHelper.getIamPolicyAttachmentCount(rolePolicy).get()))
-                // Any policy with one attachment will be abandoned
-                .map(list -> list.filter(tuple -> tuple._2 == 1))
-                // Just get the policies
-                .map(list -> list.map(tuple -> tuple._1))
-                .map(list -> list.map(attachedPolicy -> IamHelper.attachedPolicyToPolicy(attachedPolicy).get()));
+                .thenCompose(tryRolePolicies -> traverse(tryRolePolicies, rolePolicy -> async(() -> IamHelper.getIamPolicyAttachmentCount(rolePolicy))))
+                // Any policy with one attachment will be abandoned, just get the policies
+                .thenApply(tryTuples -> tryTuples.map(list -> list.filter(tuple -> tuple._2 == 1).map(tuple -> tuple._1)))
+                .thenCompose(tryAttachedPolicies -> traverse(tryAttachedPolicies, attachedPolicy -> async(() -> IamHelper.attachedPolicyToPolicy(attachedPolicy))));
+
+        CompletableFuture<Try<RoleAliasDescription>> roleAliasDescriptionFuture = async(() -> IotHelper.describeRoleAlias(tesRoleAliasName));
+
+        Try<Long> tryObjectCount = objectCountFuture.join();
+        Try<Long> tryThingsInThingGroupCount = thingsInThingGroupCountFuture.join();
+        Try<List<Arn>> tryListAttachedPrincipals = attachedPrincipalsFuture.join();
+        Try<List<Arn>> tryListAttachedCertificates = tryListAttachedPrincipals.map(IotHelper::getCertificatesFromPrincipalList);
+        Try<List<Tuple2<Arn, List<Policy>>>> tryListAttachedIotPolicies = attachedIotPoliciesFuture.join();
+        Try<List<Policy>> tryListAbandonedIotPolicies = abandonedIotPoliciesFuture.join();
+        Try<List<AttachedPolicy>> tryListAttachedRolePolicies = attachedRolePoliciesFuture.join();
+        Try<List<software.amazon.awssdk.services.iam.model.Policy>> tryListAbandonedRolePolicies = abandonedRolePoliciesFuture.join();
+        Try<RoleAliasDescription> tryRoleAliasDescription = roleAliasDescriptionFuture.join();
+
+        List<String> errorsToLog = List.empty();
+        errorsToLog = errorsToLog.appendAll(createErrorLogs(List.of(tryObjectCount), format("Failed to list the objects in the S3 bucket {0}", bucketName)));
+        errorsToLog = errorsToLog.appendAll(createErrorLogs(List.of(tryThingsInThingGroupCount), format("Failed to list the things in the thing group {0}", thingGroupName)));
+        errorsToLog = errorsToLog.appendAll(createErrorLogs(List.of(tryListAttachedPrincipals), format("Failed to list the principals attached to the thing {0}", thingName)));
+        errorsToLog = errorsToLog.appendAll(createErrorLogs(List.of(tryListAttachedIotPolicies), format("Failed to list the attached IoT policies")));
+        errorsToLog = errorsToLog.appendAll(createErrorLogs(List.of(tryListAbandonedIotPolicies), format("Failed to list the abandoned IoT policies")));
+        errorsToLog = errorsToLog.appendAll(createErrorLogs(List.of(tryListAttachedRolePolicies), format("Failed to list the IAM policies attached to the TES role {0}", tesRoleName)));
         errorsToLog = errorsToLog.appendAll(createErrorLogs(List.of(tryListAbandonedRolePolicies), format("Failed to list the abandoned IAM policies")));
+        errorsToLog = errorsToLog.appendAll(createErrorLogs(List.of(tryRoleAliasDescription), format("Failed to describe the TES role alias {0}", tesRoleAliasName)));
+
+        return ImmutableCleanupResources.builder()
+                .thingName(thingName)
+                .bucketName(bucketName)
+                .thingGroupName(thingGroupName)
+                .tryObjectCount(tryObjectCount)
+                .tryThingsInThingGroupCount(tryThingsInThingGroupCount)
+                .tryListAttachedPrincipals(tryListAttachedPrincipals)
+                .tryListAttachedCertificates(tryListAttachedCertificates)
+                .tryListAttachedIotPolicies(tryListAttachedIotPolicies)
+                .tryListAbandonedIotPolicies(tryListAbandonedIotPolicies)
+                .tryListAttachedRolePolicies(tryListAttachedRolePolicies)
+                .tryListAbandonedRolePolicies(tryListAbandonedRolePolicies)
+                .tryRoleAliasDescription(tryRoleAliasDescription)
+                .errors(errorsToLog)
+                .build();
+    }
 
-        Try<RoleAliasDescription> tryRoleAliasDescription = IotHelper.describeRoleAlias(tesRoleAliasName(thingName));
-        errorsToLog = errorsToLog.appendAll(createErrorLogs(List.of(tryRoleAliasDescription), format("Failed to describe the TES role alias {0}", tesRoleAliasName(thingName))));
+    private List<String> labelErrors(String thingName, List<String> errors) {
+        if (errors.isEmpty() || !batchMode) {
+            // Nothing to label, or only one thing so the label would just be noise
+            return errors;
+        }
 
-        // Log any errors and bail out if there are any
-        if (logErrors(errorsToLog)) {
-            println("Cannot continue when errors are present");
-            println();
-            System.exit(1);
+        return errors.prepend(format("{0}:", thingName));
+    }
+
+    private List<String> journaledDeleteEverything(CleanupResources resources) {
+        String thingName = resources.thingName();
+
+        // Write ahead what is about to be deleted so an interrupted run can be resumed, nothing is deleted without it
+        if (!journal().started(thingName)) {
+            Try<Void> tryPlan = journal().plan(thingName, CleanupPlan.encode(resources));
+
+            if (tryPlan.isFailure()) {
+                return List.of(format("- Failed to write the cleanup plan to the journal {0}, nothing was deleted [{1}]", journal().file(), tryPlan.getCause().getMessage()));
+            }
         }
 
-        displaySummaryOfOperations(bucketName,
-                thingGroupName,
-                tryObjectList,
-                tryThingsInThingGroupList,
-                tryListAttachedPrincipals,
-                tryListAttachedCertificates,
-                tryListAttachedIotPolicies,
-                tryListAbandonedIotPolicies,
-                tryListAttachedRolePolicies,
-                tryListAbandonedRolePolicies,
-                tryRoleAliasDescription);
+        List<String> errors = deleteEverything(resources);
 
-        askToProceed();
+        if (journal().writeFailed()) {
+            errors = errors.append(format("- Failed to record the progress of the cleanup in the journal {0}, if it is interrupted it may have to be restarted with --restart", journal().file()));
+        }
 
-        // Delete everything
-        deleteEverything(bucketName, thingGroupName, tryObjectList, tryThingsInThingGroupList, tryListAttachedPrincipals, tryListAttachedCertificates, tryListAttachedIotPolicies, tryListAbandonedIotPolicies, tryListAttachedRolePolicies, tryListAbandonedRolePolicies);
-    }
-
-    private void deleteEverything(String bucketName,
-                                  String thingGroupName,
-                                  Try<List<S3Object>> tryObjectList,
-                                  Try<List<String>> tryThingsInThingGroupList,
-                                  Try<List<Arn>> tryListAttachedPrincipals,
-                                  Try<List<Arn>> tryListAttachedCertificates,
-                                  Try<List<Tuple2<Arn, List<Policy>>>> tryListAttachedIotPolicies,
-                                  Try<List<Policy>> tryListAbandonedIotPolicies,
-                                  Try<List<AttachedPolicy>> tryListAttachedRolePolicies,
-                                  Try<List<software.amazon.awssdk.services.iam.model.Policy>> tryListAbandonedRolePolicies) {
-        List<String> errorsToLog = List.empty();
+        // Keep the journal when something failed so the next run only retries what is left
+        if (errors.isEmpty()) {
+            journal().finish(thingName);
+        }
 
-        // Delete S3 objects
-        if (isSuccessfulAndNonEmpty(tryObjectList)) {
-            List<Try<DeleteObjectsResponse>> s3DeleteObjectsResults = S3Helper.deleteObjectsFromBucket(bucketName, tryObjectList.get());
+        return errors;
+    }
 
-            errorsToLog = errorsToLog.appendAll(createErrorLogs(List.ofAll(s3DeleteObjectsResults), format("Failed to delete some objects in the S3 bucket {0}", bucketName)));
+    /**
+     * Runs an operation unless the journal shows that an earlier run already completed it, completed operations are
+     * recorded in the journal
+     */
+    private <T> Try<T> journaled(CleanupResources resources, CleanupStep step, String item, Function0<Try<T>> operation) {
+        String operationName = item.isEmpty() ? step.name() : format("{0} {1}", step.name(), item);
+
+        if (journal().isDone(resources.thingName(), operationName)) {
+            return Try.success(null);
         }
 
-        // Delete S3 bucket
-        Try<DeleteBucketResponse> tryDeleteBucket = S3Helper.deleteBucket(bucketName);
-        errorsToLog = errorsToLog.appendAll(createErrorLogs(List.of(tryDeleteBucket), format("Failed to delete the S3 bucket {0}", bucketName)));
+        return operation.get()
+                .onSuccess(ignore -> journal().done(resources.thingName(), operationName));
+    }
+
+    private <T> Try<T> journaled(CleanupResources resources, CleanupStep step, Function0<Try<T>> operation) {
+        return journaled(resources, step, "", operation);
+    }
 
-        // Delete thing group
-        if (willDeleteThingGroup(tryThingsInThingGroupList)) {
-            Try<DeleteThingGroupResponse> tryDeleteThingGroup = IotHelper.deleteThingGroup(thingGroupName);
+    private List<String> deleteEverything(CleanupResources resources) {
+        TaskGraph<CleanupStep> taskGraph = new TaskGraph<>(lazyStepExecutor.get());
+
+        // The ordering constraints between the steps are part of CleanupStep, everything else runs in parallel
+        List.of(CleanupStep.values())
+                .forEach(step -> taskGraph.task(step, () -> runStep(step, resources), step.dependencies()));
+
+        return taskGraph.run();
+    }
 
-            errorsToLog = errorsToLog.appendAll(createErrorLogs(List.of(tryDeleteThingGroup), format("Failed to delete the thing group {0}", thingGroupName)));
+    private List<String> runStep(CleanupStep step, CleanupResources resources) {
+        return switch (step) {
+            case DELETE_S3_OBJECTS -> deleteS3Objects(resources);
+            case DELETE_S3_BUCKET -> deleteS3Bucket(resources);
+            case DELETE_THING_GROUP -> deleteThingGroup(resources);
+            case DETACH_THING_PRINCIPALS -> detachThingPrincipals(resources);
+            case DETACH_IOT_POLICIES -> detachIotPolicies(resources);
+            case DELETE_CERTIFICATES -> deleteCertificates(resources);
+            case DELETE_IOT_POLICIES -> deleteIotPolicies(resources);
+            case DETACH_ROLE_POLICIES -> detachRolePolicies(resources);
+            case DELETE_IAM_POLICIES -> deleteIamPolicies(resources);
+            case DELETE_ROLE -> deleteRole(resources);
+            case DELETE_ROLE_ALIAS -> deleteRoleAlias(resources);
+            case DELETE_CORE_DEVICE -> deleteCoreDevice(resources);
+            case DELETE_THING -> deleteThing(resources);
+        };
+    }
+
+    private List<String> deleteS3Objects(CleanupResources resources) {
+        if (!hasObjects(resources.tryObjectCount())) {
+            return List.empty();
         }
 
-        // Detach principals from thing
-        if (isSuccessfulAndNonEmpty(tryListAttachedPrincipals)) {
-            List<Try<DetachThingPrincipalResponse>> tryDetachPrincipalFromThing = tryListAttachedPrincipals.get()
-                    .map(principal -> IotHelper.detachPrincipalFromThing(thingName, principal));
+        String thingName = resources.thingName();
 
-            errorsToLog = errorsToLog.appendAll(createErrorLogs(List.ofAll(tryDetachPrincipalFromThing), format("Failed to detach principal from thing {0}", thingName)));
+        if (journal().isDone(thingName, DELETE_S3_OBJECTS.name())) {
+            return List.empty();
         }
 
-        // Detach policies from targets
-        if (isSuccessfulAndNonEmpty(tryListAttachedIotPolicies)) {
-            List<Try<DetachPolicyResponse>> tryDetachPolicyFromTarget = tryListAttachedIotPolicies.get()
-                    .flatMap(tuple -> tuple._2.map(policy -> IotHelper.detachPolicyFromTarget(tuple._1, policy)));
+        long deletedEarlier = journal().progress(thingName, DELETE_S3_OBJECTS.name());
 
-            errorsToLog = errorsToLog.appendAll(createErrorLogs(List.ofAll(tryDetachPolicyFromTarget), "Failed to detach policy from target"));
+        if (deletedEarlier > 0) {
+            println("Resuming the deletion of the objects in the S3 bucket {}, {} object(s) were deleted by an earlier run", resources.bucketName(), deletedEarlier);
         }
 
-        // Delete the certificates
-        if (isSuccessfulAndNonEmpty(tryListAttachedCertificates)) {
-            List<Try<DeleteCertificateResponse>> tryDeleteCertificate = tryListAttachedCertificates.get()
-                    .map(IotHelper::purgeCertificate);
+        // Deleted objects don't show up when the bucket is listed again so the purge carries on from where it was
+        //   interrupted, the checkpoints keep the count of deleted objects across runs
+        S3PurgeResult s3PurgeResult = S3Helper.purgeBucket(resources.bucketName(), s3ListingParallelism,
+                deleted -> journal().progress(thingName, DELETE_S3_OBJECTS.name(), deletedEarlier + deleted));
 
-            errorsToLog = errorsToLog.appendAll(createErrorLogs(List.ofAll(tryDeleteCertificate), "Failed to delete the certificates"));
+        if (s3PurgeResult.isSuccess()) {
+            journal().done(thingName, DELETE_S3_OBJECTS.name());
+            return List.empty();
         }
 
-        // Delete the abandoned IoT policies
-        if (isSuccessfulAndNonEmpty(tryListAbandonedIotPolicies)) {
-            List<Try<DeletePolicyResponse>> tryDeletePolicy = tryListAbandonedIotPolicies.get()
-                    .map(IotHelper::deletePolicy);
+        List<String> errors = List.empty();
+
+        // The purge stopped early, there may be objects left that weren't even tried
+        if (s3PurgeResult.tryListing().isFailure()) {
+            errors = errors.append(format("- Failed to list the objects in the S3 bucket {0}, the purge stopped after deleting {1} object(s)", resources.bucketName(), s3PurgeResult.deleted()))
+                    .append(format("  - {0}\n", s3PurgeResult.tryListing().getCause().getMessage()));
+        }
 
-            errorsToLog = errorsToLog.appendAll(createErrorLogs(List.ofAll(tryDeletePolicy), "Failed to delete the policies"));
+        if (s3PurgeResult.failed() > 0) {
+            errors = errors.append(format("- Failed to delete {0} object(s) in the S3 bucket {1}", s3PurgeResult.failed(), resources.bucketName()))
+                    .appendAll(s3PurgeResult.errors().map(error -> format("  - {0}\n", error)));
         }
 
-        // Detach the IAM policies from the TES role
-        if (isSuccessfulAndNonEmpty(tryListAttachedRolePolicies)) {
-            List<Try<DetachRolePolicyResponse>> tryDetachRolePolicy = tryListAttachedRolePolicies.get()
-                    .map(attachedPolicy -> IamHelper.detachPolicyFromRole(attachedPolicy, tesRoleName(thingName)));
+        return errors;
+    }
+
+    private List<String> deleteS3Bucket(CleanupResources resources) {
+        Try<DeleteBucketResponse> tryDeleteBucket = journaled(resources, DELETE_S3_BUCKET, () -> S3Helper.deleteBucket(resources.bucketName()));
+
+        return createErrorLogs(List.of(tryDeleteBucket), format("Failed to delete the S3 bucket {0}", resources.bucketName()));
+    }
 
-            errorsToLog = errorsToLog.appendAll(createErrorLogs(List.ofAll(tryDetachRolePolicy), "Failed to detach the IAM role policies"));
+    private List<String> deleteThingGroup(CleanupResources resources) {
+        if (!willDeleteThingGroup(resources.tryThingsInThingGroupCount())) {
+            return List.empty();
         }
 
-        // Delete the abandoned IAM policies
-        if (isSuccessfulAndNonEmpty(tryListAbandonedRolePolicies)) {
-            List<Try<software.amazon.awssdk.services.iam.model.DeletePolicyResponse>> tryDeletePolicies = tryListAbandonedRolePolicies.get()
-                    .map(IamHelper::deletePolicy);
+        Try<DeleteThingGroupResponse> tryDeleteThingGroup = journaled(resources, DELETE_THING_GROUP, () -> IotHelper.deleteThingGroup(resources.thingGroupName()));
+
+        return createErrorLogs(List.of(tryDeleteThingGroup), format("Failed to delete the thing group {0}", resources.thingGroupName()));
+    }
 
-            errorsToLog = errorsToLog.appendAll(createErrorLogs(List.ofAll(tryDeletePolicies), "Failed to delete the IAM policies"));
+    private List<String> detachThingPrincipals(CleanupResources resources) {
+        if (!isSuccessfulAndNonEmpty(resources.tryListAttachedPrincipals())) {
+            return List.empty();
         }
 
-        // Delete the TES IAM role
-        Try<DeleteRoleResponse> tryDeleteRole = IamHelper.deleteRole(tesRoleName(thingName));
-        errorsToLog = errorsToLog.appendAll(createErrorLogs(List.of(tryDeleteRole), format("Failed to delete the TES IAM role {0}", tesRoleName(thingName))));
+        List<Try<DetachThingPrincipalResponse>> tryDetachPrincipalFromThing = resources.tryListAttachedPrincipals().get()
+                .map(principal -> journaled(resources, DETACH_THING_PRINCIPALS, principal.toString(),
+                        () -> IotHelper.detachPrincipalFromThing(resources.thingName(), principal)));
 
-        // Delete the role alias
-        Try<DeleteRoleAliasResponse> tryDeleteRoleAlias = IotHelper.deleteRoleAlias(tesRoleAliasName(thingName));
-        errorsToLog = errorsToLog.appendAll(createErrorLogs(List.of(tryDeleteRoleAlias), format("Failed to delete the TES IoT role alias {0}", tesRoleAliasName(thingName))));
+        return createErrorLogs(List.ofAll(tryDetachPrincipalFromThing), format("Failed to detach principal from thing {0}", resources.thingName()));
+    }
 
-        // Delete the Greengrass core device
-        Try<DeleteCoreDeviceResponse> tryDeleteCoreDevice = GreengrassHelper.deleteCoreDevice(thingName);
-        errorsToLog = errorsToLog.appendAll(createErrorLogs(List.of(tryDeleteCoreDevice), format("Failed to delete the Greengrass core device {0}", thingName)));
+    private List<String> detachIotPolicies(CleanupResources resources) {
+        if (!isSuccessfulAndNonEmpty(resources.tryListAttachedIotPolicies())) {
+            return List.empty();
+        }
 
-        // Delete the IoT thing
-        Try<DeleteThingResponse> tryDeleteThing = IotHelper.deleteThing(thingName);
-        errorsToLog = errorsToLog.appendAll(createErrorLogs(List.of(tryDeleteThing), format("Failed to delete the thing {0}", thingName)));
+        List<Try<DetachPolicyResponse>> tryDetachPolicyFromTarget = resources.tryListAttachedIotPolicies().get()
+                .flatMap(tuple -> tuple._2.map(policy -> journaled(resources, DETACH_IOT_POLICIES, format("{0} {1}", tuple._1, policy.policyName()),
+                        () -> IotHelper.detachPolicyFromTarget(tuple._1, policy))));
 
-        // Log any errors
-        logErrors(errorsToLog);
+        return createErrorLogs(List.ofAll(tryDetachPolicyFromTarget), "Failed to detach policy from target");
+    }
+
+    private List<String> deleteCertificates(CleanupResources resources) {
+        if (!isSuccessfulAndNonEmpty(resources.tryListAttachedCertificates())) {
+            return List.empty();
+        }
+
+        List<Try<DeleteCertificateResponse>> tryDeleteCertificate = resources.tryListAttachedCertificates().get()
+                .map(certificate -> journaled(resources, DELETE_CERTIFICATES, certificate.toString(), () -> IotHelper.purgeCertificate(certificate)));
+
+        return createErrorLogs(List.ofAll(tryDeleteCertificate), "Failed to delete the certificates");
+    }
+
+    private List<String> deleteIotPolicies(CleanupResources resources) {
+        if (!isSuccessfulAndNonEmpty(resources.tryListAbandonedIotPolicies())) {
+            return List.empty();
+        }
+
+        List<Try<DeletePolicyResponse>> tryDeletePolicy = resources.tryListAbandonedIotPolicies().get()
+                .map(policy -> journaled(resources, DELETE_IOT_POLICIES, policy.policyName(), () -> IotHelper.deletePolicy(policy)));
+
+        return createErrorLogs(List.ofAll(tryDeletePolicy), "Failed to delete the policies");
+    }
+
+    private List<String> detachRolePolicies(CleanupResources resources) {
+        if (!isSuccessfulAndNonEmpty(resources.tryListAttachedRolePolicies())) {
+            return List.empty();
+        }
+
+        List<Try<DetachRolePolicyResponse>> tryDetachRolePolicy = resources.tryListAttachedRolePolicies().get()
+                .map(attachedPolicy -> journaled(resources, DETACH_ROLE_POLICIES, attachedPolicy.policyArn(),
+                        () -> IamHelper.detachPolicyFromRole(attachedPolicy, tesRoleName(resources.thingName()))));
+
+        return createErrorLogs(List.ofAll(tryDetachRolePolicy), "Failed to detach the IAM role policies");
+    }
+
+    private List<String> deleteIamPolicies(CleanupResources resources) {
+        if (!isSuccessfulAndNonEmpty(resources.tryListAbandonedRolePolicies())) {
+            return List.empty();
+        }
+
+        List<Try<software.amazon.awssdk.services.iam.model.DeletePolicyResponse>> tryDeletePolicies = resources.tryListAbandonedRolePolicies().get()
+                .map(policy -> journaled(resources, DELETE_IAM_POLICIES, policy.arn(), () -> IamHelper.deletePolicy(policy)));
+
+        return createErrorLogs(List.ofAll(tryDeletePolicies), "Failed to delete the IAM policies");
+    }
+
+    private List<String> deleteRole(CleanupResources resources) {
+        String tesRoleName = tesRoleName(resources.thingName());
+        Try<DeleteRoleResponse> tryDeleteRole = journaled(resources, DELETE_ROLE, () -> IamHelper.deleteRole(tesRoleName));
+
+        return createErrorLogs(List.of(tryDeleteRole), format("Failed to delete the TES IAM role {0}", tesRoleName));
+    }
+
+    private List<String> deleteRoleAlias(CleanupResources resources) {
+        String tesRoleAliasName = tesRoleAliasName(resources.thingName());
+        Try<DeleteRoleAliasResponse> tryDeleteRoleAlias = journaled(resources, DELETE_ROLE_ALIAS, () -> IotHelper.deleteRoleAlias(tesRoleAliasName));
+
+        return createErrorLogs(List.of(tryDeleteRoleAlias), format("Failed to delete the TES IoT role alias {0}", tesRoleAliasName));
+    }
+
+    private List<String> deleteCoreDevice(CleanupResources resources) {
+        Try<DeleteCoreDeviceResponse> tryDeleteCoreDevice = journaled(resources, DELETE_CORE_DEVICE, () -> GreengrassHelper.deleteCoreDevice(resources.thingName()));
+
+        return createErrorLogs(List.of(tryDeleteCoreDevice), format("Failed to delete the Greengrass core device {0}", resources.thingName()));
+    }
+
+    private List<String> deleteThing(CleanupResources resources) {
+        Try<DeleteThingResponse> tryDeleteThing = journaled(resources, DELETE_THING, () -> IotHelper.deleteThing(resources.thingName()));
+
+        return createErrorLogs(List.of(tryDeleteThing), format("Failed to delete the thing {0}", resources.thingName()));
     }
 
     private boolean logErrors(List<String> errorsToLog) {
@@ -232,15 +655,30 @@ public class GreenEyesCleanup implements Runnable {
         return tryList.isSuccess() && tryList.get().size() > 0;
     }
 
+    private boolean hasObjects(Try<Long> tryObjectCount) {
+        return tryObjectCount.isSuccess() && tryObjectCount.get() > 0;
+    }
+
     private boolean containsFailures(List<Try> tryList) {
         return tryList.count(Try::isFailure) != 0;
     }
 
     private void askToProceed() {
+        if (assumeYes) {
+            return;
+        }
+
+        if (fromStdin && (System.console() == null)) {
+            // Standard input was used for the thing names so there is nothing left to read the answer from
+            println("Cannot ask for confirmation when the thing names are read from stdin without a console, use --yes to proceed");
+            System.exit(1);
+        }
+
         print("Would you like to proceed? (y/n) ");
-        Scanner scanner = new Scanner(System.in);
+        // The prompt has to be on the screen before we block waiting for the answer
+        Output.flush();
 
-        String line = scanner.nextLine();
+        String line = fromStdin ? System.console().readLine() : new Scanner(System.in).nextLine();
 
         if (!line.equals("y")) {
             println("User response was not 'y', exiting");
@@ -248,30 +686,39 @@ public class GreenEyesCleanup implements Runnable {
         }
     }
 
-    private void displaySummaryOfOperations(String bucketName,
-                                            String thingGroupName,
-                                            Try<List<S3Object>> tryObjectList,
-                                            Try<List<String>> tryThingsInThingGroupList,
-                                            Try<List<Arn>> tryListAttachedPrincipals,
-                                            Try<List<Arn>> tryListAttachedCertificates,
-                                            Try<List<Tuple2<Arn, List<Policy>>>> tryListAttachedIotPolicies,
-                                            Try<List<Policy>> tryListAbandonedIotPolicies,
-                                            Try<List<AttachedPolicy>> tryListAttachedRolePolicies,
-                                            Try<List<software.amazon.awssdk.services.iam.model.Policy>> tryListAbandonedRolePolicies,
-                                            Try<RoleAliasDescription> tryRoleAliasDescription) {
+    private void displaySummaryOfOperations(CleanupResources resources) {
+        String thingName = resources.thingName();
+        String bucketName = resources.bucketName();
+        String thingGroupName = resources.thingGroupName();
+        Try<Long> tryObjectCount = resources.tryObjectCount();
+        Try<Long> tryThingsInThingGroupCount = resources.tryThingsInThingGroupCount();
+        Try<List<Arn>> tryListAttachedPrincipals = resources.tryListAttachedPrincipals();
+        Try<List<Arn>> tryListAttachedCertificates = resources.tryListAttachedCertificates();
+        Try<List<Tuple2<Arn, List<Policy>>>> tryListAttachedIotPolicies = resources.tryListAttachedIotPolicies();
+        Try<List<Policy>> tryListAbandonedIotPolicies = resources.tryListAbandonedIotPolicies();
+        Try<List<AttachedPolicy>> tryListAttachedRolePolicies = resources.tryListAttachedRolePolicies();
+        Try<List<software.amazon.awssdk.services.iam.model.Policy>> tryListAbandonedRolePolicies = resources.tryListAbandonedRolePolicies();
+        Try<RoleAliasDescription> tryRoleAliasDescription = resources.tryRoleAliasDescription();
+
         println();
-        println("This process will do the following operations");
+
+        if (batchMode) {
+            println("For the Greengrass system {} this process will do the following operations", thingName);
+        } else {
+            println("This process will do the following operations");
+        }
+
         println();
 
-        if (tryObjectList.isSuccess() && tryObjectList.get().size() > 0) {
-            println("- Delete {} object(s) in the S3 bucket {}", tryObjectList.get().size(), bucketName);
+        if (hasObjects(tryObjectCount)) {
+            println("- Delete {} object(s) in the S3 bucket {}", tryObjectCount.get(), bucketName);
             println();
         }
 
         println("- Delete the S3 bucket {}", bucketName);
         println();
 
-        if (willDeleteThingGroup(tryThingsInThingGroupList)) {
+        if (willDeleteThingGroup(tryThingsInThingGroupCount)) {
             // We will not delete the thing group if there are other things in it
             println("- Delete the thing group {}", thingGroupName);
             println();
@@ -325,8 +772,8 @@ public class GreenEyesCleanup implements Runnable {
         println();
     }
 
-    private boolean willDeleteThingGroup(Try<List<String>> tryThingsInThingGroupList) {
-        return tryThingsInThingGroupList.isSuccess() && tryThingsInThingGroupList.get().size() == 1;
+    private boolean willDeleteThingGroup(Try<Long> tryThingsInThingGroupCount) {
+        return tryThingsInThingGroupCount.isSuccess() && tryThingsInThingGroupCount.get() == 1;
     }
 
     private List<Throwable> getFailures(List<Try> tries) {
@@ -0,0 +1,111 @@
+package com.awslabs.superfluid.commands.greeneyes;
+
+import com.awslabs.superfluid.helpers.Inventory;
+import io.vavr.Tuple2;
+import io.vavr.collection.List;
+import io.vavr.collection.Map;
+import io.vavr.control.Try;
+import picocli.CommandLine;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+
+import static com.awslabs.superfluid.commands.greeneyes.Data.*;
+import static com.awslabs.superfluid.helpers.Shared.println;
+
+@CommandLine.Command(name = "inventory", mixinStandardHelpOptions = true,
+        description = "Show what is in the local inventory without calling AWS. The inventory is filled in by the other commands.")
+public class GreenEyesInventory implements Runnable {
+    @CommandLine.Parameters(description = "Show the inventory entries for the Greengrass system(s) with these thing name(s)", paramLabel = "thing-name", arity = "0..*")
+    private java.util.List<String> thingNames = new ArrayList<>();
+
+    @CommandLine.Option(names = "--clear", description = "Delete the local inventory")
+    private boolean clear;
+
+    @Override
+    public void run() {
+        Inventory inventory = Inventory.inventory();
+
+        if (clear) {
+            Try.run(inventory::clear)
+                    .onSuccess(ignore -> println("Deleted the local inventory {}", inventory.file()))
+                    .onFailure(e -> println("Failed to delete the local inventory {} [{}]", inventory.file(), e.getMessage()));
+            return;
+        }
+
+        Map<String, Map<String, Inventory.Entry>> resources = inventory.resources();
+
+        if (thingNames.isEmpty()) {
+            displaySummary(inventory, resources);
+            return;
+        }
+
+        thingNames.forEach(thingName -> displayThing(thingName, resources));
+    }
+
+    private void displaySummary(Inventory inventory, Map<String, Map<String, Inventory.Entry>> resources) {
+        println("Local inventory {}", inventory.file());
+
+        if (resources.isEmpty()) {
+            println("  Empty, run a cleanup to fill it in");
+            return;
+        }
+
+        List<Inventory.Entry> entries = resources.values().flatMap(Map::values).toList();
+
+        resources.keySet()
+                .groupBy(GreenEyesInventory::resourceType)
+                .toList()
+                .sortBy(Tuple2::_1)
+                .forEach(tuple -> println("  {}: {} resource(s)", tuple._1, tuple._2.size()));
+
+        println("  {} entries, oldest updated {} ago, newest updated {} ago",
+                entries.size(),
+                age(entries.map(Inventory.Entry::updated).min().get()),
+                age(entries.map(Inventory.Entry::updated).max().get()));
+    }
+
+    // Resource names look like service:type:name and the name can contain colons too (e.g. an ARN)
+    private static String resourceType(String resource) {
+        return resource.substring(0, resource.indexOf(':', resource.indexOf(':') + 1));
+    }
+
+    private void displayThing(String thingName, Map<String, Map<String, Inventory.Entry>> resources) {
+        println();
+        println("Greengrass system {}", thingName);
+
+        List.of("iot:thing:" + thingName,
+                        "iot:thing-group:" + thingGroupName(thingName),
+                        "iot:role-alias:" + tesRoleAliasName(thingName),
+                        "iam:role:" + tesRoleName(thingName),
+                        "s3:bucket:" + s3BucketName(thingName))
+                .forEach(resource -> displayResource(resource, resources));
+    }
+
+    private void displayResource(String resource, Map<String, Map<String, Inventory.Entry>> resources) {
+        if (resources.get(resource).isEmpty()) {
+            println("  {}: not in the inventory", resource);
+            return;
+        }
+
+        resources.get(resource).get()
+                .toList()
+                .sortBy(Tuple2::_1)
+                .forEach(field -> println("  {} {}: {} (updated {} ago)", resource, field._1, field._2.values().mkString(", "), age(field._2.updated())));
+    }
+
+    private static String age(Instant instant) {
+        Duration duration = Duration.between(instant, Instant.now());
+
+        if (duration.toHours() > 0) {
+            return duration.toHours() + "h";
+        }
+
+        if (duration.toMinutes() > 0) {
+            return duration.toMinutes() + "m";
+        }
+
+        return duration.toSeconds() + "s";
+    }
+}
@@ -0,0 +1,228 @@
+package com.awslabs.superfluid.commands.greeneyes;
+
+import com.awslabs.superfluid.helpers.ETags;
+import com.awslabs.superfluid.helpers.ParallelHelper;
+import com.awslabs.superfluid.helpers.S3Helper;
+import com.awslabs.superfluid.helpers.files.ParallelVisitor;
+import com.awslabs.superfluid.visual.ProgressRenderer;
+import io.vavr.collection.HashSet;
+import io.vavr.collection.List;
+import io.vavr.collection.Set;
+import io.vavr.control.Try;
+import picocli.CommandLine;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+import java.nio.file.FileVisitResult;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import static com.awslabs.superfluid.commands.greeneyes.Data.s3BucketName;
+import static com.awslabs.superfluid.helpers.AwsSdkHelper.join;
+import static com.awslabs.superfluid.helpers.Shared.println;
+import static com.awslabs.superfluid.visual.ProgressRenderer.renderer;
+import static java.text.MessageFormat.format;
+
+@CommandLine.Command(name = "sync", mixinStandardHelpOptions = true,
+        description = "Upload a local tree of component artifacts to the S3 bucket of a Greengrass system. Only files that are new or changed are uploaded.")
+public class GreenEyesSync implements Runnable {
+    public static final int DEFAULT_CONCURRENCY = 16;
+
+    @CommandLine.Parameters(index = "0", description = "The thing name of the Greengrass system", paramLabel = "thing-name")
+    private String thingName;
+
+    @CommandLine.Parameters(index = "1", description = "The local directory to upload", paramLabel = "directory")
+    private Path directory;
+
+    @CommandLine.Option(names = "--prefix", description = "The key prefix to upload under, e.g. artifacts/ (default: the root of the bucket)", paramLabel = "prefix", defaultValue = "")
+    private String prefix;
+
+    @CommandLine.Option(names = "--delete", description = "Also delete the objects under the prefix that aren't in the local directory")
+    private boolean delete;
+
+    @CommandLine.Option(names = "--dry-run", description = "Show what would be uploaded and deleted without changing anything")
+    private boolean dryRun;
+
+    @CommandLine.Option(names = "--concurrency", description = "The number of upload requests in flight at once, large files are uploaded in several parts at the same time (default: ${DEFAULT-VALUE})", defaultValue = "" + DEFAULT_CONCURRENCY)
+    private int concurrency;
+
+    @CommandLine.Option(names = "--s3-listing-parallelism", description = "The number of S3 prefixes to list at the same time (default: ${DEFAULT-VALUE})", defaultValue = "" + S3Helper.DEFAULT_LISTING_PARALLELISM)
+    private int s3ListingParallelism;
+
+    private static class LocalFile {
+        private final String key;
+        private final Path path;
+        private final long size;
+
+        private LocalFile(String key, Path path, long size) {
+            this.key = key;
+            this.path = path;
+            this.size = size;
+        }
+    }
+
+    @Override
+    public void run() {
+        String bucketName = s3BucketName(thingName);
+
+        Try<List<LocalFile>> tryLocalFiles = listLocalFiles();
+        Try<Map<String, S3Object>> tryRemoteObjects = listRemoteObjects(bucketName);
+
+        tryLocalFiles.onFailure(e -> println("Failed to read the local directory {} [{}]", directory, e.getMessage()));
+        tryRemoteObjects.onFailure(e -> println("Failed to list the objects in the S3 bucket {} [{}]", bucketName, e.getMessage()));
+
+        if (tryLocalFiles.isFailure() || tryRemoteObjects.isFailure()) {
+            System.exit(1);
+        }
+
+        List<LocalFile> localFiles = tryLocalFiles.get();
+        Map<String, S3Object> remoteObjects = tryRemoteObjects.get();
+        List<LocalFile> changedFiles = changedFiles(localFiles, remoteObjects);
+        Set<String> localKeys = HashSet.ofAll(localFiles.map(localFile -> localFile.key));
+        List<S3Object> extraObjects = delete ?
+                List.ofAll(remoteObjects.values()).filter(s3Object -> !localKeys.contains(s3Object.key())) :
+                List.empty();
+        long bytesToUpload = changedFiles.map(localFile -> localFile.size).sum().longValue();
+
+        println("{} file(s) to upload ({} bytes), {} unchanged, {} object(s) to delete",
+                changedFiles.size(), bytesToUpload, localFiles.size() - changedFiles.size(), extraObjects.size());
+
+        if (dryRun) {
+            changedFiles.forEach(localFile -> println("  upload {} -> s3://{}/{}", localFile.path, bucketName, localFile.key));
+            extraObjects.forEach(s3Object -> println("  delete s3://{}/{}", bucketName, s3Object.key()));
+            return;
+        }
+
+        List<String> errors = upload(bucketName, changedFiles, bytesToUpload);
+
+        if (extraObjects.nonEmpty()) {
+            errors = errors.appendAll(S3Helper.deleteObjectsFromBucket(bucketName, extraObjects)
+                    .filter(Try::isFailure)
+                    .map(result -> format("Failed to delete objects from the S3 bucket {0} [{1}]", bucketName, result.getCause().getMessage())));
+        }
+
+        if (errors.nonEmpty()) {
+            println("Errors:");
+            errors.forEach(error -> println("  {}", error));
+            System.exit(1);
+        }
+    }
+
+    private Try<List<LocalFile>> listLocalFiles() {
+        ConcurrentLinkedQueue<LocalFile> localFiles = new ConcurrentLinkedQueue<>();
+        ConcurrentLinkedQueue<String> errors = new ConcurrentLinkedQueue<>();
+        Path root = directory.toAbsolutePath().normalize();
+
+        return new ParallelVisitor()
+                .visitFile((path, attrs) -> {
+                    // Links aren't followed, and there is nothing to upload for anything else that isn't a regular file
+                    if (attrs.isRegularFile()) {
+                        localFiles.add(new LocalFile(key(root, path), path, attrs.size()));
+                    }
+
+                    return FileVisitResult.CONTINUE;
+                })
+                .visitFileFailed((path, exception) -> {
+                    errors.add(format("{0} [{1}]", path, exception.getMessage()));
+                    return FileVisitResult.CONTINUE;
+                })
+                .walk(root)
+                .flatMap(ignore -> errors.isEmpty() ?
+                        Try.success(List.ofAll(localFiles)) :
+                        Try.failure(new IllegalStateException(String.join(", ", errors))));
+    }
+
+    // S3 keys always use forward slashes whatever the local separator is
+    private String key(Path root, Path path) {
+        return prefix + StreamSupport.stream(root.relativize(path).spliterator(), false)
+                .map(Path::toString)
+                .collect(Collectors.joining("/"));
+    }
+
+    private Try<Map<String, S3Object>> listRemoteObjects(String bucketName) {
+        ProgressRenderer.Task task = renderer().start(format("Listing the objects in the S3 bucket {0}", bucketName), "objects");
+
+        return S3Helper.streamObjectsInBucket(bucketName, s3ListingParallelism)
+                .mapTry(stream -> stream
+                        .peek(ignore -> task.add(1))
+                        .filter(s3Object -> s3Object.key().startsWith(prefix))
+                        // Folder markers created by the console have nothing to compare with
+                        .filter(s3Object -> !s3Object.key().endsWith("/"))
+                        .collect(Collectors.toMap(S3Object::key, s3Object -> s3Object)))
+                .onFailure(e -> task.fail(format("Failed to list the objects in the S3 bucket {0} [{1}]", bucketName, e.getMessage())))
+                .onSuccess(remoteObjects -> task.success(format("Listed {0} object(s) under the prefix \"{1}\" in the S3 bucket {2}", remoteObjects.size(), prefix, bucketName)));
+    }
+
+    /**
+     * The files that are new or different. Sizes are compared first, only files with the same size as their object are
+     * hashed, on every core at once.
+     */
+    private List<LocalFile> changedFiles(List<LocalFile> localFiles, Map<String, S3Object> remoteObjects) {
+        ProgressRenderer.Task task = renderer().start(format("Comparing {0} local file(s) with the S3 bucket", localFiles.size()), "files");
+        ForkJoinPool forkJoinPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+        try {
+            // Parallel streams run in the pool they are started from
+            List<LocalFile> changedFiles = Try.of(() -> forkJoinPool.submit(() -> localFiles.toJavaParallelStream()
+                            .peek(ignore -> task.add(1))
+                            .filter(localFile -> isChanged(localFile, remoteObjects.get(localFile.key)))
+                            .collect(Collectors.toList())).get())
+                    .map(List::ofAll)
+                    .get();
+
+            task.success(format("Compared {0} local file(s) with the S3 bucket, {1} changed", localFiles.size(), changedFiles.size()));
+
+            return changedFiles;
+        } finally {
+            forkJoinPool.shutdown();
+        }
+    }
+
+    private static boolean isChanged(LocalFile localFile, S3Object s3Object) {
+        if ((s3Object == null) || (s3Object.size() != localFile.size)) {
+            return true;
+        }
+
+        // A file that can't be read is treated as changed, the upload will report the error
+        return !Try.of(() -> ETags.matches(localFile.path, localFile.size, s3Object.eTag())).getOrElse(false);
+    }
+
+    private List<String> upload(String bucketName, List<LocalFile> changedFiles, long bytesToUpload) {
+        if (changedFiles.isEmpty()) {
+            return List.empty();
+        }
+
+        ProgressRenderer.Task task = renderer().start(format("Uploading {0} file(s) ({1} bytes) to the S3 bucket {2}", changedFiles.size(), bytesToUpload, bucketName), "bytes");
+        // Shared by every upload so small files and the parts of large files together stay within the limit
+        Semaphore requestPermits = new Semaphore(Math.max(concurrency, 1));
+
+        List<String> errors = ParallelHelper.parallelMap(changedFiles, concurrency, localFile -> upload(bucketName, localFile, requestPermits, task)
+                        .failed()
+                        .map(e -> format("Failed to upload {0} to s3://{1}/{2} [{3}]", localFile.path, bucketName, localFile.key, e.getMessage())))
+                .flatMap(Try::toOption);
+
+        if (errors.isEmpty()) {
+            task.success(format("Uploaded {0} file(s) ({1} bytes) to the S3 bucket {2}", changedFiles.size(), bytesToUpload, bucketName));
+        } else {
+            task.fail(format("Failed to upload {0} of {1} file(s) to the S3 bucket {2}", errors.size(), changedFiles.size(), bucketName));
+        }
+
+        return errors;
+    }
+
+    private static Try<?> upload(String bucketName, LocalFile localFile, Semaphore requestPermits, ProgressRenderer.Task task) {
+        if (localFile.size > ETags.MULTIPART_THRESHOLD) {
+            return S3Helper.uploadFileInParts(bucketName, localFile.key, localFile.path, localFile.size, requestPermits, task::add);
+        }
+
+        requestPermits.acquireUninterruptibly();
+
+        return Try.of(() -> join(S3Helper.putFileAsync(bucketName, localFile.key, localFile.path)
+                        .whenComplete((response, throwable) -> requestPermits.release())))
+                .andThen(ignore -> task.add(localFile.size));
+    }
+}
@@ -0,0 +1,267 @@
+package com.awslabs.superfluid.helpers;
+
+import io.vavr.Function0;
+import io.vavr.collection.HashMap;
+import io.vavr.collection.Map;
+import io.vavr.control.Option;
+import software.amazon.awssdk.core.SdkRequest;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttribute;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+import software.amazon.awssdk.core.interceptor.SdkExecutionAttribute;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.text.MessageFormat.format;
+
+/**
+ * Limits the rate of requests for each service and operation with a token bucket. Each bucket starts at the published
+ * default limit for the operation and adapts to what the account actually allows. Successful requests slowly increase
+ * the rate (additive increase) and throttled requests halve it (multiplicative decrease).
+ * <p>
+ * This is registered on every client in {@link Shared} so it applies to each attempt, retries and paginated requests
+ * included. The sync clients wait for their slot in the interceptor. The async clients must never block there (it would
+ * block the caller, or the SDK's own threads on retries), so async calls wait for their slot before they are sent, see
+ * {@link #sendAsync}. Async requests that weren't sent that way (later pages of a listing, the SDK's own retries) take
+ * the next slot without waiting, the calls after them wait longer instead.
+ */
+public class AdaptiveRateLimiter implements ExecutionInterceptor {
+    // Starting rates in requests per second, the published defaults for the control plane APIs we call
+    private static final Map<String, Double> DEFAULT_RATES = HashMap.of(
+            "IoT:DeleteThing", 100.0,
+            "IoT:DetachThingPrincipal", 100.0,
+            "IoT:DeleteThingGroup", 100.0,
+            "IoT:ListAttachedPolicies", 15.0,
+            "IoT:DetachPolicy", 15.0);
+    private static final Map<String, Double> DEFAULT_SERVICE_RATES = HashMap.of(
+            "IoT", 10.0,
+            "IAM", 10.0,
+            "GreengrassV2", 10.0);
+    // Probe up to this multiple of the starting rate since some accounts have raised limits
+    private static final double MAX_RATE_MULTIPLIER = 4.0;
+    private static final double MIN_RATE = 0.5;
+    private static final double DECREASE_FACTOR = 0.5;
+    // A burst of throttled responses should only halve the rate once
+    private static final long DECREASE_COOLDOWN_NANOS = TimeUnit.SECONDS.toNanos(1);
+    // How much unused capacity can build up while a bucket is idle
+    private static final long BURST_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final int TOO_MANY_REQUESTS = 429;
+    private static final int SERVICE_UNAVAILABLE = 503;
+    // The service names the SDK uses by the package of their model classes, to find the bucket of a request before it is sent
+    private static final Map<String, String> SERVICE_NAMES = HashMap.of(
+            "iot", "IoT",
+            "iam", "IAM",
+            "greengrassv2", "GreengrassV2");
+    private static final String REQUEST_SUFFIX = "Request";
+    // Set while an async call that already waited for its slot is being sent
+    private static final ThreadLocal<Boolean> sendingWithSlot = ThreadLocal.withInitial(() -> false);
+    private static final ExecutionAttribute<AtomicBoolean> HAS_SLOT = new ExecutionAttribute<>("superfluid.rateLimiter.hasSlot");
+
+    private final ConcurrentHashMap<String, TokenBucket> buckets;
+    private final LongAdder requests;
+    private final boolean blocking;
+
+    public AdaptiveRateLimiter() {
+        this(new ConcurrentHashMap<>(), new LongAdder(), true);
+    }
+
+    private AdaptiveRateLimiter(ConcurrentHashMap<String, TokenBucket> buckets, LongAdder requests, boolean blocking) {
+        this.buckets = buckets;
+        this.requests = requests;
+        this.blocking = blocking;
+    }
+
+    /**
+     * The interceptor for the async clients, it shares the rates with this one but never waits
+     */
+    public AdaptiveRateLimiter forAsyncClients() {
+        return new AdaptiveRateLimiter(buckets, requests, false);
+    }
+
+    /**
+     * Waits for a slot for the request without blocking, then sends it. Every attempt of an async call should go
+     * through here.
+     */
+    public <T> CompletableFuture<T> sendAsync(SdkRequest request, Function0<CompletableFuture<T>> sdkCall) {
+        long waitNanos = bucket(request).map(TokenBucket::reserve).getOrElse(0L);
+        CompletableFuture<Void> slot = (waitNanos <= 0) ?
+                CompletableFuture.completedFuture(null) :
+                CompletableFuture.runAsync(() -> {
+                }, CompletableFuture.delayedExecutor(waitNanos, TimeUnit.NANOSECONDS, ParallelHelper.ioExecutor()));
+
+        return slot.thenCompose(ignore -> {
+            // The async clients run beforeExecution on the calling thread so this is seen by the request sent here
+            sendingWithSlot.set(true);
+
+            try {
+                return sdkCall.get();
+            } finally {
+                sendingWithSlot.remove();
+            }
+        });
+    }
+
+    @Override
+    public void beforeExecution(Context.BeforeExecution context, ExecutionAttributes executionAttributes) {
+        if (sendingWithSlot.get()) {
+            executionAttributes.putAttribute(HAS_SLOT, new AtomicBoolean(true));
+        }
+    }
+
+    @Override
+    public void beforeTransmission(Context.BeforeTransmission context, ExecutionAttributes executionAttributes) {
+        AtomicBoolean hasSlot = executionAttributes.getAttribute(HAS_SLOT);
+
+        // Only the first attempt has a slot already, the SDK's retries need one of their own
+        if ((hasSlot == null) || !hasSlot.compareAndSet(true, false)) {
+            bucket(executionAttributes).forEach(blocking ? TokenBucket::acquire : TokenBucket::reserve);
+        }
+
+        requests.increment();
+    }
+
+    @Override
+    public void afterTransmission(Context.AfterTransmission context, ExecutionAttributes executionAttributes) {
+        int statusCode = context.httpResponse().statusCode();
+
+        if ((statusCode == TOO_MANY_REQUESTS) || (statusCode == SERVICE_UNAVAILABLE)) {
+            bucket(executionAttributes).forEach(TokenBucket::decrease);
+        } else if (context.httpResponse().isSuccessful()) {
+            bucket(executionAttributes).forEach(TokenBucket::increase);
+        }
+    }
+
+    @Override
+    public void onExecutionFailure(Context.FailedExecution context, ExecutionAttributes executionAttributes) {
+        // Some services (e.g. IAM) throttle with a 400 and an error code, those are only visible here
+        if ((context.exception() instanceof SdkServiceException) && ((SdkServiceException) context.exception()).isThrottlingException()) {
+            bucket(executionAttributes).forEach(TokenBucket::decrease);
+        }
+    }
+
+    /**
+     * The number of requests sent so far, including retries
+     */
+    public long requestCount() {
+        return requests.sum();
+    }
+
+    /**
+     * The current rate of every operation that has been called, keyed by service:operation
+     */
+    public Map<String, Double> currentRates() {
+        return HashMap.ofAll(buckets).mapValues(TokenBucket::rate);
+    }
+
+    /**
+     * A short description of the operations that are running below their starting rate, empty when nothing has been
+     * throttled
+     */
+    public String throttledSummary() {
+        return HashMap.ofAll(buckets)
+                .filterValues(TokenBucket::isThrottled)
+                .toList()
+                .sortBy(tuple -> tuple._1)
+                .map(tuple -> format("{0} {1,number,0.0}/s", tuple._1, tuple._2.rate()))
+                .mkString(", ");
+    }
+
+    private Option<TokenBucket> bucket(ExecutionAttributes executionAttributes) {
+        return bucket(executionAttributes.getAttribute(SdkExecutionAttribute.SERVICE_NAME),
+                executionAttributes.getAttribute(SdkExecutionAttribute.OPERATION_NAME));
+    }
+
+    // The same bucket the interceptor uses for the request, e.g. IoT:DeleteThing for a DeleteThingRequest
+    private Option<TokenBucket> bucket(SdkRequest request) {
+        Class<?> requestClass = request.getClass();
+        String[] packageNames = requestClass.getPackageName().split("\\.");
+        String operationName = requestClass.getSimpleName().replaceFirst(REQUEST_SUFFIX + "$", "");
+
+        return Option.when(packageNames.length > 1, () -> packageNames[packageNames.length - 2])
+                .flatMap(SERVICE_NAMES::get)
+                .flatMap(serviceName -> bucket(serviceName, operationName));
+    }
+
+    private Option<TokenBucket> bucket(String serviceName, String operationName) {
+        String key = String.join(":", serviceName, operationName);
+
+        // Services without a known limit (e.g. S3) aren't limited
+        return DEFAULT_RATES.get(key)
+                .orElse(() -> DEFAULT_SERVICE_RATES.get(serviceName))
+                .map(initialRate -> buckets.computeIfAbsent(key, ignore -> new TokenBucket(initialRate)));
+    }
+
+    private static class TokenBucket {
+        private final double initialRate;
+        private final double maxRate;
+        private double rate;
+        private long nextFreeNanos = System.nanoTime();
+        private long lastDecreaseNanos = System.nanoTime() - DECREASE_COOLDOWN_NANOS;
+
+        TokenBucket(double initialRate) {
+            this.initialRate = initialRate;
+            this.maxRate = initialRate * MAX_RATE_MULTIPLIER;
+            this.rate = initialRate;
+        }
+
+        void acquire() {
+            long waitNanos = reserve();
+
+            if (waitNanos <= 0) {
+                return;
+            }
+
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                // Let the SDK see the interrupt and abort the request
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        // Takes the next free slot and returns how long the caller has to wait for it
+        synchronized long reserve() {
+            long now = System.nanoTime();
+            long slot = Math.max(nextFreeNanos, now - BURST_NANOS);
+            nextFreeNanos = slot + intervalNanos();
+
+            return slot - now;
+        }
+
+        synchronized void increase() {
+            // Roughly one more request per second for every second spent at the current rate
+            rate = Math.min(maxRate, rate + (1.0 / rate));
+        }
+
+        synchronized void decrease() {
+            long now = System.nanoTime();
+
+            if (now - lastDecreaseNanos < DECREASE_COOLDOWN_NANOS) {
+                return;
+            }
+
+            lastDecreaseNanos = now;
+            rate = Math.max(MIN_RATE, rate * DECREASE_FACTOR);
+            // Drop any saved up burst capacity
+            nextFreeNanos = Math.max(nextFreeNanos, now);
+        }
+
+        synchronized double rate() {
+            return rate;
+        }
+
+        synchronized boolean isThrottled() {
+            return rate < initialRate;
+        }
+
+        private long intervalNanos() {
+            return (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        }
+    }
+}
@@ -1,22 +1,32 @@
 package com.awslabs.superfluid.helpers;
 
-import com.awslabs.superfluid.visual.Spinner;
+import com.awslabs.superfluid.visual.ProgressRenderer;
 import io.vavr.Function0;
 import io.vavr.Function1;
 import io.vavr.Tuple;
 import io.vavr.Tuple3;
 import io.vavr.collection.List;
+import io.vavr.control.Option;
 import io.vavr.control.Try;
+import software.amazon.awssdk.core.SdkRequest;
 import software.amazon.awssdk.core.SdkResponse;
+import software.amazon.awssdk.core.async.SdkPublisher;
 import software.amazon.awssdk.core.pagination.sync.SdkIterable;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.stream.Stream;
 
+import static com.awslabs.superfluid.helpers.RetryHelper.*;
+import static com.awslabs.superfluid.visual.ProgressRenderer.renderer;
 import static java.text.MessageFormat.format;
 
 public class AwsSdkHelper {
-    private static final Spinner SPINNER = Spinner.Standard();
+    private static final RequestCache REQUEST_CACHE = new RequestCache();
     public static final Tuple3<String, String, String> LIST = Tuple.of("Listing", "Listed", "list");
     public static final Tuple3<String, String, String> DESCRIBE = Tuple.of("Describing", "Described", "describe");
     public static final Tuple3<String, String, String> DELETE = Tuple.of("Deleting", "Deleted", "delete");
@@ -44,15 +54,15 @@ public class AwsSdkHelper {
 
     public static <T> Try<List<T>> resultListWithSpinner(Function0<Try<Stream<T>>> paginatedSdkCall,
                                                          String type, String inProgressWord, String successWord, String failedWord) {
-        SPINNER.start(String.join(" ", inProgressWord, "the", type));
+        ProgressRenderer.Task task = renderer().start(String.join(" ", inProgressWord, "the", type));
 
         return resultList(paginatedSdkCall)
-                .onFailure(e -> SPINNER.fail(format("Failed to {0} the {1} [{2}]", failedWord, type, e.getMessage())))
-                .onSuccess(list -> SPINNER.success(format("{0} {1} {2}", successWord, list.size(), type)));
+                .onFailure(e -> task.fail(format("Failed to {0} the {1} [{2}]", failedWord, type, e.getMessage())))
+                .onSuccess(list -> task.success(format("{0} {1} {2}", successWord, list.size(), type)));
     }
 
     public static <T extends SdkResponse, U> Try<U> result(Function0<T> sdkCall, Function1<T, U> getFunction) {
-        return Try.of(sdkCall::get)
+        return Try.of(() -> retry(policy(), sdkCall))
                 .map(getFunction);
     }
 
@@ -66,10 +76,252 @@ public class AwsSdkHelper {
     }
 
     public static <T extends SdkResponse, U> Try<U> resultWithSpinner(Function0<T> sdkCall, Function1<T, U> getFunction, String type, String inProgressWord, String successWord, String failedWord) {
-        SPINNER.start(String.join(" ", inProgressWord, "the", type));
+        ProgressRenderer.Task task = renderer().start(String.join(" ", inProgressWord, "the", type));
 
         return result(sdkCall, getFunction)
-                .onFailure(e -> SPINNER.fail(format("Failed to {0} the {1} [{2}]", failedWord, type, e.getMessage())))
-                .onSuccess(list -> SPINNER.success(format("{0} {1}", successWord, type)));
+                .onFailure(e -> task.fail(format("Failed to {0} the {1} [{2}]", failedWord, type, e.getMessage())))
+                .onSuccess(list -> task.success(format("{0} {1}", successWord, type)));
+    }
+
+    public static <T extends SdkResponse, U> SdkPublisher<U> resultPublisher(Function0<SdkPublisher<T>> paginatedSdkCall,
+                                                                             Function1<T, java.util.List<U>> getListFunction) {
+        return paginatedSdkCall.get()
+                .flatMapIterable(getListFunction::apply);
+    }
+
+    public static <T> CompletableFuture<List<T>> resultListAsync(Function0<SdkPublisher<T>> paginatedSdkCall) {
+        // A failure restarts the listing, long listings should use resumableListAsync instead
+        return retryAsync(policy(), () -> {
+            // Reactive streams deliver elements one at a time so a plain list is safe here
+            java.util.List<T> values = new ArrayList<>();
+
+            return Try.of(paginatedSdkCall::get)
+                    .map(publisher -> publisher.subscribe(values::add))
+                    .getOrElseGet(CompletableFuture::failedFuture)
+                    .thenApply(ignore -> List.ofAll(values));
+        });
+    }
+
+    /**
+     * Pages through a listing one request at a time. Each page is retried on its own so a failure part way through
+     * resumes from the last page token instead of starting the listing over.
+     *
+     * @param fetchPage fetches the page for a token, the first page is fetched with no token
+     * @param nextToken gets the token for the next page, none on the last page
+     */
+    public static <T extends SdkResponse, K, U> Try<Stream<U>> resumableStream(Function1<Option<K>, T> fetchPage,
+                                                                             Function1<T, Option<K>> nextToken,
+                                                                             Function1<T, java.util.List<U>> getListFunction) {
+        return Try.of(() -> resumablePages(fetchPage, nextToken)
+                .map(getListFunction)
+                .flatMap(Collection::stream));
+    }
+
+    public static <T extends SdkResponse, K> Stream<T> resumablePages(Function1<Option<K>, T> fetchPage,
+                                                                      Function1<T, Option<K>> nextToken) {
+        T firstPage = retry(policy(), () -> fetchPage.apply(Option.none()));
+
+        // The rest of the pages are fetched lazily as the stream is consumed, just like the SDK paginators
+        return Stream.iterate(firstPage,
+                Objects::nonNull,
+                page -> nextToken.apply(page)
+                        .map(token -> retry(RetryHelper.<T>policy(), () -> fetchPage.apply(Option.some(token))))
+                        .getOrNull());
+    }
+
+    public static <T extends SdkResponse, K, U> CompletableFuture<List<U>> resumableListAsync(Function1<Option<K>, CompletableFuture<T>> fetchPage,
+                                                                                            Function1<T, Option<K>> nextToken,
+                                                                                            Function1<T, java.util.List<U>> getListFunction) {
+        return resumableListAsync(fetchPage, nextToken, getListFunction, Option.none(), List.empty());
+    }
+
+    private static <T extends SdkResponse, K, U> CompletableFuture<List<U>> resumableListAsync(Function1<Option<K>, CompletableFuture<T>> fetchPage,
+                                                                                             Function1<T, Option<K>> nextToken,
+                                                                                             Function1<T, java.util.List<U>> getListFunction,
+                                                                                             Option<K> token,
+                                                                                             List<U> values) {
+        return retryAsync(policy(), () -> fetchPage.apply(token))
+                .thenCompose(page -> {
+                    List<U> valuesSoFar = values.appendAll(getListFunction.apply(page));
+
+                    return nextToken.apply(page)
+                            .map(next -> resumableListAsync(fetchPage, nextToken, getListFunction, Option.some(next), valuesSoFar))
+                            .getOrElse(() -> CompletableFuture.completedFuture(valuesSoFar));
+                });
+    }
+
+    /**
+     * Counts the results of a paginated call but stops at the limit, the pages after the one that hits the limit are
+     * never requested. Useful when only 0, 1 or "more" matters.
+     */
+    public static <T> Try<Long> countAtMost(Function0<Try<Stream<T>>> paginatedSdkCall, long limit) {
+        // Sync paginators fetch pages lazily as the stream is consumed
+        return paginatedSdkCall.get()
+                .map(stream -> stream.limit(limit).count());
+    }
+
+    public static <T> CompletableFuture<Long> countAtMostAsync(Function0<SdkPublisher<T>> paginatedSdkCall, long limit) {
+        // The publisher cancels its subscription once the limit is reached which stops the pagination
+        return resultListAsync(() -> paginatedSdkCall.get().limit(Math.toIntExact(limit)))
+                .thenApply(list -> (long) list.size());
+    }
+
+    public static <R extends SdkRequest, T extends SdkResponse> CompletableFuture<T> resultAsync(R request, Function1<R, CompletableFuture<T>> sdkCall) {
+        return resultAsync(request, sdkCall, result -> result);
+    }
+
+    /**
+     * Sends the request with retries. Every attempt waits for the rate limiter before it is sent, without blocking a
+     * thread.
+     */
+    public static <R extends SdkRequest, T extends SdkResponse, U> CompletableFuture<U> resultAsync(R request, Function1<R, CompletableFuture<T>> sdkCall, Function1<T, U> getFunction) {
+        return retryAsync(policy(), () -> sendAsync(request, sdkCall))
+                .thenApply(getFunction);
+    }
+
+    /**
+     * Runs a delete with retries. Deletes are idempotent so if a retry finds the resource is already gone the delete
+     * succeeded.
+     *
+     * @param notFoundClass       the exception the service throws when the resource doesn't exist
+     * @param alreadyDeleted      the response to use when the resource was already deleted
+     * @param retryableErrorCodes extra error codes that mean the resource can't be deleted yet but will be soon
+     */
+    public static <R extends SdkRequest, T extends SdkResponse> CompletableFuture<T> deleteAsync(R request,
+                                                                                               Function1<R, CompletableFuture<T>> sdkCall,
+                                                                                               Class<? extends Throwable> notFoundClass,
+                                                                                               Function0<T> alreadyDeleted,
+                                                                                               String... retryableErrorCodes) {
+        return retryDeleteAsync(policy(retryableErrorCodes),
+                () -> sendAsync(request, sdkCall),
+                notFoundClass,
+                alreadyDeleted);
+    }
+
+    private static <R extends SdkRequest, T> CompletableFuture<T> sendAsync(R request, Function1<R, CompletableFuture<T>> sdkCall) {
+        // The request may be sent from another thread once it has a slot, it is still the same attempt
+        boolean retry = RetryHelper.isRetry();
+
+        // Validation errors are thrown before the future is created, turn those into failed futures too
+        return Shared.rateLimiter().sendAsync(request, () -> RetryHelper.attempt(retry,
+                () -> Try.of(() -> sdkCall.apply(request)).getOrElseGet(CompletableFuture::failedFuture)));
+    }
+
+    /**
+     * Runs a read-only call at most once per request for the lifetime of the process, concurrent identical calls share
+     * the same in-flight request
+     */
+    public static <V> CompletableFuture<V> cachedAsync(String resource, Object request, Function0<CompletableFuture<V>> asyncCall) {
+        return REQUEST_CACHE.get(resource, request, asyncCall);
+    }
+
+    /**
+     * Runs a read-only call and records its result in the local inventory, or answers it from the inventory when
+     * reading from it is enabled and the entry is fresh enough
+     */
+    public static CompletableFuture<List<String>> indexedAsync(String resource, String field, Function0<CompletableFuture<List<String>>> asyncCall) {
+        return indexedAsync(resource, field, value -> value, value -> value, asyncCall);
+    }
+
+    /**
+     * Same as above for values that aren't a list of strings, encode and decode convert them to and from one
+     */
+    public static <T> CompletableFuture<T> indexedAsync(String resource, String field,
+                                                        Function1<T, List<String>> encode, Function1<List<String>, T> decode,
+                                                        Function0<CompletableFuture<T>> asyncCall) {
+        Option<List<String>> indexedValues = Inventory.lookup(resource, field);
+
+        if (indexedValues.isDefined()) {
+            return CompletableFuture.completedFuture(decode.apply(indexedValues.get()));
+        }
+
+        return asyncCall.get()
+                .thenApply(value -> {
+                    Inventory.record(resource, field, encode.apply(value));
+                    return value;
+                });
+    }
+
+    /**
+     * Synchronous version of indexedAsync
+     */
+    public static <T> Try<T> indexed(String resource, String field,
+                                     Function1<T, List<String>> encode, Function1<List<String>, T> decode,
+                                     Function0<Try<T>> call) {
+        Option<List<String>> indexedValues = Inventory.lookup(resource, field);
+
+        if (indexedValues.isDefined()) {
+            return Try.success(decode.apply(indexedValues.get()));
+        }
+
+        return call.get()
+                .onSuccess(value -> Inventory.record(resource, field, encode.apply(value)));
+    }
+
+    /**
+     * Runs a mutating call and drops every cached read and inventory entry of the resources it changed once it succeeds
+     */
+    public static <T> CompletableFuture<T> invalidatingAsync(Function0<CompletableFuture<T>> asyncCall, String... resources) {
+        return asyncCall.get()
+                .thenApply(result -> {
+                    invalidate(resources);
+                    return result;
+                });
+    }
+
+    public static void invalidate(String... resources) {
+        Arrays.stream(resources).forEach(resource -> {
+            REQUEST_CACHE.invalidate(resource);
+            Inventory.forget(resource);
+        });
+    }
+
+    /**
+     * Waits for an asynchronous result and unwraps the completion exception so callers see the same SDK exceptions
+     * that the synchronous clients throw
+     */
+    public static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            throw unchecked(unwrap(e));
+        }
+    }
+
+    /**
+     * Gets the original exception out of the wrappers that CompletableFuture adds when stages are chained
+     */
+    public static Throwable unwrap(Throwable throwable) {
+        if ((throwable instanceof CompletionException) && (throwable.getCause() != null)) {
+            return throwable.getCause();
+        }
+
+        return throwable;
+    }
+
+    public static RuntimeException unchecked(Throwable throwable) {
+        if (throwable instanceof RuntimeException) {
+            return (RuntimeException) throwable;
+        }
+
+        return new RuntimeException(throwable);
+    }
+
+    public static <T> Try<List<T>> awaitListWithSpinner(Function0<CompletableFuture<List<T>>> asyncSdkCall,
+                                                        String type, Tuple3<String, String, String> words) {
+        ProgressRenderer.Task task = renderer().start(String.join(" ", words._1, "the", type));
+
+        return Try.of(() -> join(asyncSdkCall.get()))
+                .onFailure(e -> task.fail(format("Failed to {0} the {1} [{2}]", words._3, type, e.getMessage())))
+                .onSuccess(list -> task.success(format("{0} {1} {2}", words._2, list.size(), type)));
+    }
+
+    public static <T> Try<T> awaitWithSpinner(Function0<CompletableFuture<T>> asyncSdkCall,
+                                              String type, Tuple3<String, String, String> words) {
+        ProgressRenderer.Task task = renderer().start(String.join(" ", words._1, "the", type));
+
+        return Try.of(() -> join(asyncSdkCall.get()))
+                .onFailure(e -> task.fail(format("Failed to {0} the {1} [{2}]", words._3, type, e.getMessage())))
+                .onSuccess(result -> task.success(format("{0} {1}", words._2, type)));
     }
 }
@@ -0,0 +1,313 @@
+package com.awslabs.superfluid.helpers;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import io.vavr.Lazy;
+import io.vavr.collection.List;
+import io.vavr.control.Either;
+import io.vavr.control.Option;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttribute;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+import software.amazon.awssdk.core.interceptor.SdkExecutionAttribute;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.text.MessageFormat.format;
+
+/**
+ * Counts the calls, failures, retries and throttled attempts of every service and operation, and keeps a latency
+ * histogram for each, with --stats. The summary is printed when the process exits, as a table or as JSON.
+ * <p>
+ * A call that {@link RetryHelper} sends again after it failed is still one call, its attempts are counted as retries
+ * just like the SDK's own retries. Throttled attempts are those with a 429 or 503 response, plus a final failure that
+ * the SDK recognizes as throttling (e.g. IAM's 400 Throttling errors).
+ * <p>
+ * Latency is measured for each time the SDK sends a call, from the start until its last attempt finished, so it
+ * includes the SDK's retries and any time spent waiting for the rate limiter. A retry by RetryHelper is measured on its
+ * own. Recording a call only touches counters, nothing is locked.
+ */
+public class CallStats implements ExecutionInterceptor {
+    public enum Format {TABLE, JSON}
+
+    private static final ExecutionAttribute<Long> START_NANOS = new ExecutionAttribute<>("superfluid.stats.startNanos");
+    private static final ExecutionAttribute<Boolean> RETRY = new ExecutionAttribute<>("superfluid.stats.retry");
+    private static final int TOO_MANY_REQUESTS = 429;
+    private static final int SERVICE_UNAVAILABLE = 503;
+    private static final List<Double> PERCENTILES = List.of(0.5, 0.9, 0.99);
+    private static final Lazy<CallStats> lazyCallStats = Lazy.of(CallStats::new);
+
+    private static volatile Format format = null;
+
+    private final ConcurrentHashMap<String, OperationStats> operations = new ConcurrentHashMap<>();
+    private final long startNanos = System.nanoTime();
+
+    private static class OperationStats {
+        private final String operation;
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder attempts = new LongAdder();
+        private final LongAdder throttled = new LongAdder();
+        private final Histogram latencyMicros = new Histogram();
+
+        private OperationStats(String operation) {
+            this.operation = operation;
+        }
+
+        private long retries() {
+            return Math.max(attempts.sum() - calls.sum(), 0);
+        }
+    }
+
+    /**
+     * A histogram like HdrHistogram's with a fixed precision of about 3%. Values below 32 have a bucket each, above that
+     * every power of two is split into 32 buckets. Buckets are only ever incremented so recording never blocks.
+     */
+    static class Histogram {
+        private static final int SUB_BUCKET_BITS = 5;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        // Values up to 2^40 microseconds (about 12 days), anything larger is recorded as the largest value
+        private static final int MAX_MAGNITUDE = 40;
+        private static final long MAX_VALUE = (1L << MAX_MAGNITUDE) - 1;
+
+        private final AtomicLongArray counts = new AtomicLongArray((MAX_MAGNITUDE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        void record(long value) {
+            long clamped = Math.min(Math.max(value, 0), MAX_VALUE);
+            counts.incrementAndGet(index(clamped));
+            count.increment();
+            sum.add(clamped);
+            max.accumulate(clamped);
+        }
+
+        long count() {
+            return count.sum();
+        }
+
+        long max() {
+            return max.get();
+        }
+
+        double mean() {
+            long count = count();
+
+            return (count == 0) ? 0 : ((double) sum.sum() / count);
+        }
+
+        // The highest value that could be in the bucket the percentile falls into, like HdrHistogram reports it
+        long percentile(double percentile) {
+            long[] snapshot = new long[counts.length()];
+            long total = 0;
+
+            for (int index = 0; index < snapshot.length; index++) {
+                snapshot[index] = counts.get(index);
+                total += snapshot[index];
+            }
+
+            long target = Math.max((long) Math.ceil(percentile * total), 1);
+            long seen = 0;
+
+            for (int index = 0; index < snapshot.length; index++) {
+                seen += snapshot[index];
+
+                if (seen >= target) {
+                    return Math.min(highestValue(index), max());
+                }
+            }
+
+            return max();
+        }
+
+        static int index(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+
+            // Keep the top SUB_BUCKET_BITS + 1 bits, the rest only says where in the bucket the value is
+            int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+
+            return (shift * SUB_BUCKETS) + (int) (value >>> shift);
+        }
+
+        static long highestValue(int index) {
+            if (index < (2 * SUB_BUCKETS)) {
+                return index;
+            }
+
+            int shift = (index / SUB_BUCKETS) - 1;
+            long mantissa = index - ((long) shift * SUB_BUCKETS);
+
+            return ((mantissa + 1) << shift) - 1;
+        }
+    }
+
+    public static boolean enabled() {
+        return format != null;
+    }
+
+    public static void enable() {
+        // Keeps a format that was already chosen
+        if (format == null) {
+            enable(Format.TABLE);
+        }
+    }
+
+    /**
+     * Starts collecting, the summary is printed in the given format when the process exits
+     */
+    public static void enable(Format format) {
+        if (CallStats.format == null) {
+            Output.onClose(() -> Shared.print(lazyCallStats.get().report()));
+        }
+
+        CallStats.format = format;
+        lazyCallStats.get();
+    }
+
+    public static CallStats interceptor() {
+        return lazyCallStats.get();
+    }
+
+    @Override
+    public void beforeExecution(Context.BeforeExecution context, ExecutionAttributes executionAttributes) {
+        executionAttributes.putAttribute(START_NANOS, System.nanoTime());
+        executionAttributes.putAttribute(RETRY, RetryHelper.isRetry());
+    }
+
+    @Override
+    public void beforeTransmission(Context.BeforeTransmission context, ExecutionAttributes executionAttributes) {
+        stats(executionAttributes).attempts.increment();
+    }
+
+    @Override
+    public void afterTransmission(Context.AfterTransmission context, ExecutionAttributes executionAttributes) {
+        if (isThrottlingStatus(context.httpResponse().statusCode())) {
+            stats(executionAttributes).throttled.increment();
+        }
+    }
+
+    @Override
+    public void afterExecution(Context.AfterExecution context, ExecutionAttributes executionAttributes) {
+        record(executionAttributes, false);
+    }
+
+    @Override
+    public void onExecutionFailure(Context.FailedExecution context, ExecutionAttributes executionAttributes) {
+        // Some services (e.g. IAM) throttle with a 400 and an error code, those are only visible here. A 429 or 503 was
+        //   already counted when its response came in.
+        if ((context.exception() instanceof SdkServiceException) &&
+                ((SdkServiceException) context.exception()).isThrottlingException() &&
+                !isThrottlingStatus(((SdkServiceException) context.exception()).statusCode())) {
+            stats(executionAttributes).throttled.increment();
+        }
+
+        record(executionAttributes, true);
+    }
+
+    private void record(ExecutionAttributes executionAttributes, boolean failed) {
+        OperationStats operationStats = stats(executionAttributes);
+
+        if (Boolean.TRUE.equals(executionAttributes.getAttribute(RETRY))) {
+            // Only failed calls are retried, the call has only failed if this attempt fails too
+            operationStats.failed.decrement();
+        } else {
+            operationStats.calls.increment();
+        }
+
+        if (failed) {
+            operationStats.failed.increment();
+        }
+
+        Option.of(executionAttributes.getAttribute(START_NANOS))
+                .forEach(startNanos -> operationStats.latencyMicros.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos)));
+    }
+
+    // The same responses the rate limiter backs off on
+    private static boolean isThrottlingStatus(int statusCode) {
+        return (statusCode == TOO_MANY_REQUESTS) || (statusCode == SERVICE_UNAVAILABLE);
+    }
+
+    private OperationStats stats(ExecutionAttributes executionAttributes) {
+        String key = String.join(":",
+                executionAttributes.getAttribute(SdkExecutionAttribute.SERVICE_NAME),
+                executionAttributes.getAttribute(SdkExecutionAttribute.OPERATION_NAME));
+        // A plain get doesn't lock, only the first call of each operation has to create its entry
+        OperationStats operationStats = operations.get(key);
+
+        return (operationStats != null) ? operationStats : operations.computeIfAbsent(key, OperationStats::new);
+    }
+
+    // Busiest operations first
+    private List<OperationStats> sortedOperations() {
+        return List.ofAll(operations.values())
+                .sortBy(operationStats -> -operationStats.calls.sum());
+    }
+
+    String report() {
+        return (format == Format.JSON) ?
+                GsonHelper.toJson(toJson()) + System.lineSeparator() :
+                table();
+    }
+
+    private String table() {
+        ConsoleStringTable table = new ConsoleStringTable();
+        table.addRow("Operation", "Calls", "Failed", "Retries", "Throttled", "p50 ms", "p90 ms", "p99 ms", "Max ms");
+
+        sortedOperations().forEach(operationStats -> table.addRow(
+                List.of(operationStats.operation,
+                                String.valueOf(operationStats.calls.sum()),
+                                String.valueOf(operationStats.failed.sum()),
+                                String.valueOf(operationStats.retries()),
+                                String.valueOf(operationStats.throttled.sum()))
+                        .appendAll(PERCENTILES.map(percentile -> milliseconds(operationStats.latencyMicros.percentile(percentile))))
+                        .append(milliseconds(operationStats.latencyMicros.max()))
+                        .toJavaArray(String[]::new)));
+
+        long totalCalls = List.ofAll(operations.values()).map(operationStats -> operationStats.calls.sum()).sum().longValue();
+        double seconds = (System.nanoTime() - startNanos) / 1_000_000_000.0;
+
+        return format("AWS calls: {0} in {1,number,0.0} s ({2,number,0.0} calls/s)", totalCalls, seconds, totalCalls / Math.max(seconds, 0.001)) +
+                System.lineSeparator() +
+                table.getTableAsString(Either.left(2));
+    }
+
+    private JsonObject toJson() {
+        JsonArray operationsJson = new JsonArray();
+
+        sortedOperations().forEach(operationStats -> {
+            Histogram histogram = operationStats.latencyMicros;
+            JsonObject latency = new JsonObject();
+            PERCENTILES.forEach(percentile -> latency.addProperty(format("p{0,number,0.##}", percentile * 100), histogram.percentile(percentile) / 1000.0));
+            latency.addProperty("max", histogram.max() / 1000.0);
+            latency.addProperty("mean", histogram.mean() / 1000.0);
+
+            JsonObject operationJson = new JsonObject();
+            operationJson.addProperty("operation", operationStats.operation);
+            operationJson.addProperty("calls", operationStats.calls.sum());
+            operationJson.addProperty("failed", operationStats.failed.sum());
+            operationJson.addProperty("retries", operationStats.retries());
+            operationJson.addProperty("throttled", operationStats.throttled.sum());
+            operationJson.add("latencyMs", latency);
+            operationsJson.add(operationJson);
+        });
+
+        JsonObject stats = new JsonObject();
+        stats.addProperty("durationMs", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+        stats.add("operations", operationsJson);
+
+        return stats;
+    }
+
+    private static String milliseconds(long micros) {
+        return format("{0,number,0.0}", micros / 1000.0);
+    }
+}
@@ -1,64 +1,184 @@
 package com.awslabs.superfluid.helpers
 
 import io.vavr.control.Either
+import java.io.Closeable
+import java.io.Flushable
+import java.io.StringWriter
+import java.io.Writer
 import kotlin.math.max
 
-// From https://stackoverflow.com/questions/5551186/java-lib-to-build-and-print-table-on-console
-class ConsoleStringTable {
-    private data class Index(val row: Int, val column: Int)
+// Originally from https://stackoverflow.com/questions/5551186/java-lib-to-build-and-print-table-on-console
+//   The cells are kept in one flat array (row * columns + column) and the column widths are updated as cells are
+//   added, so rendering is a single pass that writes straight to a Writer.
+class ConsoleStringTable(columns: Int = 0) {
+    private var columnCount = columns
+    private var rowCount = 0
+    private var cells = arrayOfNulls<String>(max(columns, 1) * INITIAL_ROWS)
+    private var columnSizes = IntArray(columns)
 
-    private val contents = mutableMapOf<Index, String>()
-    private val columnSizes = mutableMapOf<Int, Int>()
+    val rows: Int
+        get() = rowCount
 
-    private var rowCount = 0
-    private var columnCount = 0
+    fun addRow(vararg row: String) {
+        val rowIndex = rowCount
+        ensureRows(rowIndex + 1)
+        row.forEachIndexed { column, content -> addString(rowIndex, column, content) }
+        rowCount = max(rowCount, rowIndex + 1)
+    }
 
     fun addString(row: Int, column: Int, content: String) {
+        if (column >= columnCount) {
+            widen(column + 1)
+        }
+
+        ensureRows(row + 1)
         rowCount = max(rowCount, row + 1)
-        columnCount = max(columnCount, column + 1)
+        cells[(row * columnCount) + column] = content
 
-        val index = Index(row, column)
-        contents[index] = content
+        if (columnSizes[column] < content.length) {
+            columnSizes[column] = content.length
+        }
+    }
 
-        setMaxColumnSize(column, content)
+    fun clear() {
+        cells.fill(null, 0, rowCount * columnCount)
+        rowCount = 0
     }
 
-    private fun setMaxColumnSize(column: Int, content: String) {
-        val size = content.length
-        val currentSize = columnSizes[column]
-        if (currentSize == null || currentSize < size) {
-            columnSizes[column] = size
-        }
+    internal fun columnSizes(): IntArray = columnSizes.copyOf()
+
+    fun writeTo(writer: Writer, padding: Either<Int, String> = Either.left(1)) {
+        writeTo(writer, padding, columnSizes)
     }
 
-    private fun getColumnSize(column: Int): Int = columnSizes[column] ?: 0
+    internal fun writeTo(writer: Writer, padding: Either<Int, String>, sizes: IntArray) {
+        for (row in 0 until rowCount) {
+            for (column in 0 until columnCount) {
+                writeCell(writer, cells[(row * columnCount) + column] ?: "", column, columnCount, sizes, padding)
+            }
 
-    private fun getString(row: Int, column: Int): String {
-        val index = Index(row, column)
-        val string = contents[index]
-        return string ?: ""
+            writer.write(System.lineSeparator())
+        }
     }
 
     fun getTableAsString(padding: Either<Int, String>): String {
-        val out = StringBuilder()
+        val writer = StringWriter()
+        writeTo(writer, padding)
+        return writer.toString()
+    }
+
+    override fun toString(): String = getTableAsString(Either.left(1))
+
+    // Grows the array by doubling so adding rows one at a time stays cheap
+    private fun ensureRows(rows: Int) {
+        val needed = rows * max(columnCount, 1)
+
+        if (needed <= cells.size) {
+            return
+        }
+
+        cells = cells.copyOf(max(needed, cells.size * 2))
+    }
+
+    // Only happens when a row is wider than any before it, the existing rows are laid out again with the new width
+    private fun widen(columns: Int) {
+        val widened = arrayOfNulls<String>(max(rowCount, INITIAL_ROWS) * columns)
+
         for (row in 0 until rowCount) {
-            for (col in 0 until columnCount) {
-                val columnSize = getColumnSize(col)
-                val content = getString(row, col)
-                if (padding.isLeft) {
-                    val pad = if (col == columnCount - 1) 0 else padding.left
-                    out.append(content.padEnd(columnSize + pad))
-                } else {
-                    out.append(content.padEnd(columnSize))
-                    out.append(" ")
-                    out.append(padding.get())
-                    out.append(" ")
+            System.arraycopy(cells, row * columnCount, widened, row * columns, columnCount)
+        }
+
+        cells = widened
+        columnSizes = columnSizes.copyOf(columns)
+        columnCount = columns
+    }
+
+    /**
+     * Writes rows as they are added instead of holding the whole table. The first sampleRows rows are held back to
+     * work out the column widths, after that every row is written right away with those widths. A later cell that is
+     * wider than its column is written in full, it just pushes the rest of its row to the right.
+     */
+    class Streaming(private val writer: Writer,
+                    private val padding: Either<Int, String> = Either.left(1),
+                    private val sampleRows: Int = DEFAULT_SAMPLE_ROWS) : Flushable, Closeable {
+        private val sample = ConsoleStringTable()
+        private var sizes: IntArray? = null
+
+        fun addRow(vararg row: String) {
+            val fixedSizes = sizes
+
+            if (fixedSizes == null) {
+                sample.addRow(*row)
+
+                if (sample.rows >= sampleRows) {
+                    writeSample()
                 }
+
+                return
             }
-            out.append(System.lineSeparator())
+
+            for (column in row.indices) {
+                writeCell(writer, row[column], column, row.size, fixedSizes, padding)
+            }
+
+            writer.write(System.lineSeparator())
+        }
+
+        private fun writeSample() {
+            val sampleSizes = sample.columnSizes()
+            sample.writeTo(writer, padding, sampleSizes)
+            sample.clear()
+            sizes = sampleSizes
+        }
+
+        // Tables shorter than the sample are only written here
+        override fun flush() {
+            if (sizes == null) {
+                writeSample()
+            }
+
+            writer.flush()
+        }
+
+        override fun close() {
+            flush()
         }
-        return out.toString()
     }
 
-    override fun toString(): String = getTableAsString(Either.left(1))
+    companion object {
+        const val DEFAULT_SAMPLE_ROWS = 1000
+        private const val INITIAL_ROWS = 16
+        private val SPACES = CharArray(256) { ' ' }
+
+        @JvmStatic
+        @JvmOverloads
+        fun streaming(writer: Writer, padding: Either<Int, String> = Either.left(1), sampleRows: Int = DEFAULT_SAMPLE_ROWS) =
+            Streaming(writer, padding, sampleRows)
+
+        private fun writeCell(writer: Writer, content: String, column: Int, columnCount: Int, sizes: IntArray, padding: Either<Int, String>) {
+            val columnSize = if (column < sizes.size) sizes[column] else 0
+            writer.write(content)
+
+            if (padding.isLeft) {
+                val pad = if (column == columnCount - 1) 0 else padding.left
+                // A cell wider than its column (only possible when streaming) still gets the padding after it
+                writeSpaces(writer, max(columnSize - content.length, 0) + pad)
+            } else {
+                writeSpaces(writer, columnSize - content.length)
+                writer.write(" ")
+                writer.write(padding.get())
+                writer.write(" ")
+            }
+        }
+
+        private fun writeSpaces(writer: Writer, count: Int) {
+            var remaining = count
+
+            while (remaining > 0) {
+                val chunk = minOf(remaining, SPACES.size)
+                writer.write(SPACES, 0, chunk)
+                remaining -= chunk
+            }
+        }
+    }
 }
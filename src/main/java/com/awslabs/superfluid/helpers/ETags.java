@@ -0,0 +1,110 @@
+package com.awslabs.superfluid.helpers;
+
+import io.vavr.collection.List;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.stream.IntStream;
+
+/**
+ * Computes S3 ETags for local files so they can be compared with a bucket listing without downloading anything. An
+ * object uploaded in a single request has the MD5 of its contents as its ETag, an object uploaded in parts has the MD5
+ * of the concatenated MD5s of its parts followed by "-" and the number of parts.
+ * <p>
+ * Files are read through memory mappings so the contents never have to be copied onto the heap, and the parts of a
+ * large file are hashed in parallel.
+ * <p>
+ * This doesn't work for objects encrypted with SSE-KMS or SSE-C, their ETags aren't MD5s, those always look changed.
+ */
+public class ETags {
+    private static final long MEBIBYTE = 1024 * 1024;
+    // Used for every multipart upload we do, and the default of the AWS CLI, so it is the part size we see the most
+    public static final long PART_SIZE = 8 * MEBIBYTE;
+    // Files this size or smaller are uploaded in a single request
+    public static final long MULTIPART_THRESHOLD = PART_SIZE;
+    // Mappings are limited to this size so huge files don't need a huge amount of address space at once
+    private static final long MAP_WINDOW = 64 * MEBIBYTE;
+
+    /**
+     * Compares a local file with an ETag from a listing. For multipart ETags the part size isn't in the listing, the
+     * size we upload with is tried first and then the smallest whole number of mebibytes that gives the same number of
+     * parts, which covers the common uploaders.
+     */
+    public static boolean matches(Path file, long size, String remoteETag) {
+        String etag = remoteETag.replace("\"", "");
+        int dash = etag.indexOf('-');
+
+        if (dash < 0) {
+            return HexFormat.of().formatHex(md5(file, 0, size)).equalsIgnoreCase(etag);
+        }
+
+        int parts = Integer.parseInt(etag.substring(dash + 1));
+        long minimumPartSize = (size + parts - 1) / parts;
+        long wholeMebibytes = ((minimumPartSize + MEBIBYTE - 1) / MEBIBYTE) * MEBIBYTE;
+
+        return List.of(PART_SIZE, wholeMebibytes)
+                .distinct()
+                .filter(partSize -> partCount(size, partSize) == parts)
+                .exists(partSize -> multipartETag(file, size, partSize).equalsIgnoreCase(etag));
+    }
+
+    public static int partCount(long size, long partSize) {
+        return Math.toIntExact(Math.max((size + partSize - 1) / partSize, 1));
+    }
+
+    private static String multipartETag(Path file, long size, long partSize) {
+        int parts = partCount(size, partSize);
+
+        // Each part is hashed on its own so the parts can be hashed at the same time
+        byte[][] partDigests = IntStream.range(0, parts)
+                .parallel()
+                .mapToObj(part -> md5(file, part * partSize, Math.min(partSize, size - (part * partSize))))
+                .toArray(byte[][]::new);
+
+        MessageDigest messageDigest = md5();
+
+        for (byte[] partDigest : partDigests) {
+            messageDigest.update(partDigest);
+        }
+
+        return HexFormat.of().formatHex(messageDigest.digest()) + "-" + parts;
+    }
+
+    /**
+     * The MD5 of part of a file, read through memory mappings of at most MAP_WINDOW bytes
+     */
+    public static byte[] md5(Path file, long position, long length) {
+        MessageDigest messageDigest = md5();
+
+        try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long offset = 0;
+
+            while (offset < length) {
+                long windowSize = Math.min(MAP_WINDOW, length - offset);
+                MappedByteBuffer mappedByteBuffer = fileChannel.map(FileChannel.MapMode.READ_ONLY, position + offset, windowSize);
+                messageDigest.update(mappedByteBuffer);
+                offset += windowSize;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return messageDigest.digest();
+    }
+
+    private static MessageDigest md5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            // Every JVM has to support MD5
+            throw new IllegalStateException(e);
+        }
+    }
+}
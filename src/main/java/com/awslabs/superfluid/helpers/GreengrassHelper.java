@@ -4,18 +4,25 @@ package com.awslabs.superfluid.helpers;
 import io.vavr.control.Try;
 import software.amazon.awssdk.services.greengrassv2.model.DeleteCoreDeviceRequest;
 import software.amazon.awssdk.services.greengrassv2.model.DeleteCoreDeviceResponse;
+import software.amazon.awssdk.services.greengrassv2.model.ResourceNotFoundException;
 
-import static com.awslabs.superfluid.helpers.AwsSdkHelper.DELETE;
-import static com.awslabs.superfluid.helpers.AwsSdkHelper.resultWithSpinner;
-import static com.awslabs.superfluid.helpers.Shared.greengrassV2Client;
+import java.util.concurrent.CompletableFuture;
+
+import static com.awslabs.superfluid.helpers.AwsSdkHelper.*;
+import static com.awslabs.superfluid.helpers.Shared.greengrassV2AsyncClient;
 
 public class GreengrassHelper {
-    public static Try<DeleteCoreDeviceResponse> deleteCoreDevice(String thingName) {
+    public static CompletableFuture<DeleteCoreDeviceResponse> deleteCoreDeviceAsync(String thingName) {
         DeleteCoreDeviceRequest deleteCoreDeviceRequest = DeleteCoreDeviceRequest.builder()
                 .coreDeviceThingName(thingName)
                 .build();
 
-        return resultWithSpinner(() -> greengrassV2Client().deleteCoreDevice(deleteCoreDeviceRequest),
+        return deleteAsync(deleteCoreDeviceRequest, request -> greengrassV2AsyncClient().deleteCoreDevice(request),
+                ResourceNotFoundException.class, () -> DeleteCoreDeviceResponse.builder().build());
+    }
+
+    public static Try<DeleteCoreDeviceResponse> deleteCoreDevice(String thingName) {
+        return awaitWithSpinner(() -> deleteCoreDeviceAsync(thingName),
                 "Greengrass core device " + thingName, DELETE);
     }
 }
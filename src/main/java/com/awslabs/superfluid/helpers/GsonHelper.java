@@ -1,24 +1,100 @@
 package com.awslabs.superfluid.helpers;
 
+import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonSyntaxException;
 import com.google.gson.TypeAdapterFactory;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 import io.vavr.Lazy;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.ServiceLoader;
+import java.util.function.Consumer;
 
 public class GsonHelper {
-    private static final Lazy<GsonBuilder> lazyGsonBuilder = Lazy.of(GsonHelper::getGsonBuilder);
+    // Gson instances are immutable and thread-safe, so each configuration is built once (including the service loader
+    //   lookup for the Immutables adapters) and shared
+    private static final Lazy<Gson> lazyGson = Lazy.of(() -> getGsonBuilder().create());
+    private static final Lazy<Gson> lazyPrettyGson = Lazy.of(() -> getGsonBuilder()
+            .disableHtmlEscaping()
+            .setPrettyPrinting()
+            .create());
+
+    public static Gson gson() {
+        return lazyGson.get();
+    }
+
+    public static Gson prettyGson() {
+        return lazyPrettyGson.get();
+    }
 
     public static String reformatJson(String json) {
-        return toJson(fromJson(Object.class, json));
+        StringWriter stringWriter = new StringWriter(json.length() * 2);
+
+        try {
+            reformatJson(new StringReader(json), stringWriter);
+        } catch (IOException e) {
+            // In-memory readers and writers don't fail, this is malformed JSON
+            throw new JsonSyntaxException(e);
+        }
+
+        return stringWriter.toString();
+    }
+
+    /**
+     * Pretty prints JSON one token at a time so the document is never held in memory as a tree. Numbers are copied
+     * exactly as they were written. Like toJson, null object members are dropped.
+     */
+    public static void reformatJson(Reader reader, Writer writer) throws IOException {
+        JsonReader jsonReader = jsonReader(reader);
+        JsonWriter jsonWriter = jsonWriter(writer);
+
+        while (true) {
+            switch (jsonReader.peek()) {
+                case BEGIN_ARRAY -> {
+                    jsonReader.beginArray();
+                    jsonWriter.beginArray();
+                }
+                case END_ARRAY -> {
+                    jsonReader.endArray();
+                    jsonWriter.endArray();
+                }
+                case BEGIN_OBJECT -> {
+                    jsonReader.beginObject();
+                    jsonWriter.beginObject();
+                }
+                case END_OBJECT -> {
+                    jsonReader.endObject();
+                    jsonWriter.endObject();
+                }
+                case NAME -> jsonWriter.name(jsonReader.nextName());
+                case STRING -> jsonWriter.value(jsonReader.nextString());
+                case NUMBER -> jsonWriter.jsonValue(jsonReader.nextString());
+                case BOOLEAN -> jsonWriter.value(jsonReader.nextBoolean());
+                case NULL -> {
+                    jsonReader.nextNull();
+                    jsonWriter.nullValue();
+                }
+                case END_DOCUMENT -> {
+                    jsonWriter.flush();
+                    return;
+                }
+            }
+        }
     }
 
     public static String toJson(Object object) {
-        return lazyGsonBuilder.get()
-                .disableHtmlEscaping()
-                .setPrettyPrinting()
-                .create()
-                .toJson(object);
+        return prettyGson().toJson(object);
+    }
+
+    public static void toJson(Object object, Writer writer) {
+        prettyGson().toJson(object, writer);
     }
 
     private static GsonBuilder getGsonBuilder() {
@@ -39,8 +115,41 @@ public class GsonHelper {
     }
 
     public static <T> T fromJson(Class<T> clazz, String json) {
-        return lazyGsonBuilder.get()
-                .create()
-                .fromJson(json, clazz);
+        return gson().fromJson(json, clazz);
+    }
+
+    public static <T> T fromJson(Class<T> clazz, Reader reader) {
+        return gson().fromJson(reader, clazz);
+    }
+
+    /**
+     * Reads a top-level JSON array one element at a time, only the current element is ever in memory
+     */
+    public static <T> void forEachElement(Class<T> clazz, Reader reader, Consumer<T> consumer) throws IOException {
+        JsonReader jsonReader = jsonReader(reader);
+
+        if (jsonReader.peek() != JsonToken.BEGIN_ARRAY) {
+            throw new IllegalArgumentException("Expected a JSON array but found " + jsonReader.peek());
+        }
+
+        jsonReader.beginArray();
+
+        while (jsonReader.hasNext()) {
+            consumer.accept(gson().fromJson(jsonReader, clazz));
+        }
+
+        jsonReader.endArray();
+    }
+
+    // Lenient like fromJson so anything fromJson accepts can also be streamed
+    public static JsonReader jsonReader(Reader reader) {
+        JsonReader jsonReader = gson().newJsonReader(reader);
+        jsonReader.setLenient(true);
+        return jsonReader;
+    }
+
+    // Pretty printed and without HTML escaping like toJson
+    public static JsonWriter jsonWriter(Writer writer) throws IOException {
+        return prettyGson().newJsonWriter(writer);
     }
 }
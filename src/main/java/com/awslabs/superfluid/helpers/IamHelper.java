@@ -5,11 +5,14 @@ import io.vavr.Tuple2;
 import io.vavr.collection.List;
 import io.vavr.control.Try;
 import software.amazon.awssdk.arns.Arn;
+import software.amazon.awssdk.core.async.SdkPublisher;
 import software.amazon.awssdk.services.iam.model.*;
 
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Stream;
 
 import static com.awslabs.superfluid.helpers.AwsSdkHelper.*;
+import static com.awslabs.superfluid.helpers.Shared.iamAsyncClient;
 import static com.awslabs.superfluid.helpers.Shared.iamClient;
 
 public class IamHelper {
@@ -33,55 +36,136 @@ public class IamHelper {
         return resultStream(() -> iamClient().listAttachedRolePoliciesPaginator(listAttachedRolePoliciesRequest), ListAttachedRolePoliciesResponse::attachedPolicies);
     }
 
+    public static SdkPublisher<AttachedPolicy> publishAttachedRolePolicies(String roleName) {
+        ListAttachedRolePoliciesRequest listAttachedRolePoliciesRequest = ListAttachedRolePoliciesRequest.builder()
+                .roleName(roleName)
+                .build();
+
+        return resultPublisher(() -> iamAsyncClient().listAttachedRolePoliciesPaginator(listAttachedRolePoliciesRequest), ListAttachedRolePoliciesResponse::attachedPolicies);
+    }
+
+    public static CompletableFuture<List<AttachedPolicy>> listAttachedRolePoliciesAsync(String roleName) {
+        return indexedAsync(roleResource(roleName), "policies", IamHelper::encodeAttachedPolicies, IamHelper::decodeAttachedPolicies,
+                () -> resultListAsync(() -> publishAttachedRolePolicies(roleName)));
+    }
+
     public static Try<List<AttachedPolicy>> listAttachedRolePolicies(String roleName) {
-        return resultListWithSpinner(() -> streamAttachedRolePolicies(roleName), "policies attached to role " + roleName, LIST);
+        return awaitListWithSpinner(() -> listAttachedRolePoliciesAsync(roleName), "policies attached to role " + roleName, LIST);
     }
 
-    public static Try<Tuple2<AttachedPolicy, Integer>> getIamPolicyAttachmentCount(AttachedPolicy iamPolicy) {
-        GetPolicyRequest getPolicyRequest = GetPolicyRequest.builder()
-                .policyArn(iamPolicy.policyArn())
+    private static String policyResource(String policyArn) {
+        return "iam:policy:" + policyArn;
+    }
+
+    private static String roleResource(String roleName) {
+        return "iam:role:" + roleName;
+    }
+
+    // Policy names can't contain spaces so the name and ARN are kept in one string
+    private static List<String> encodeAttachedPolicies(List<AttachedPolicy> attachedPolicies) {
+        return attachedPolicies.map(attachedPolicy -> attachedPolicy.policyName() + " " + attachedPolicy.policyArn());
+    }
+
+    private static List<AttachedPolicy> decodeAttachedPolicies(List<String> values) {
+        return values.map(value -> value.split(" ", 2))
+                .map(parts -> AttachedPolicy.builder().policyName(parts[0]).policyArn(parts[1]).build());
+    }
+
+    // Only the parts of the policy the cleanup uses are kept in the inventory
+    private static List<String> encodePolicy(Policy policy) {
+        return List.of(policy.policyName(), policy.arn(), String.valueOf(policy.attachmentCount()));
+    }
+
+    private static Policy decodePolicy(List<String> values) {
+        return Policy.builder()
+                .policyName(values.get(0))
+                .arn(values.get(1))
+                .attachmentCount(Integer.valueOf(values.get(2)))
                 .build();
+    }
 
-        return resultWithSpinner(() -> iamClient().getPolicy(getPolicyRequest),
-                result -> Tuple.of(iamPolicy, result.policy().attachmentCount()),
-                "policy " + Arn.fromString(iamPolicy.policyArn()).resourceAsString(), DESCRIBE);
+    /**
+     * Drops everything cached about the policy, in memory and in the inventory, so the next lookup asks AWS again
+     */
+    public static void invalidatePolicy(String policyArn) {
+        invalidate(policyResource(policyArn));
     }
 
-    public static Try<Policy> attachedPolicyToPolicy(AttachedPolicy iamPolicy) {
+    public static CompletableFuture<Policy> getPolicyAsync(String policyArn) {
         GetPolicyRequest getPolicyRequest = GetPolicyRequest.builder()
-                .policyArn(iamPolicy.policyArn())
+                .policyArn(policyArn)
                 .build();
 
-        return resultWithSpinner(() -> iamClient().getPolicy(getPolicyRequest),
-                GetPolicyResponse::policy,
+        // IAM has low TPS limits and the same policy is looked up several times during a cleanup
+        return cachedAsync(policyResource(policyArn), getPolicyRequest,
+                () -> indexedAsync(policyResource(policyArn), "policy", IamHelper::encodePolicy, IamHelper::decodePolicy,
+                        () -> resultAsync(getPolicyRequest, request -> iamAsyncClient().getPolicy(request), GetPolicyResponse::policy)));
+    }
+
+    public static CompletableFuture<Tuple2<AttachedPolicy, Integer>> getIamPolicyAttachmentCountAsync(AttachedPolicy iamPolicy) {
+        return getPolicyAsync(iamPolicy.policyArn())
+                .thenApply(policy -> Tuple.of(iamPolicy, policy.attachmentCount()));
+    }
+
+    public static Try<Tuple2<AttachedPolicy, Integer>> getIamPolicyAttachmentCount(AttachedPolicy iamPolicy) {
+        return awaitWithSpinner(() -> getIamPolicyAttachmentCountAsync(iamPolicy),
+                "policy " + Arn.fromString(iamPolicy.policyArn()).resourceAsString(), DESCRIBE);
+    }
+
+    public static CompletableFuture<Policy> attachedPolicyToPolicyAsync(AttachedPolicy iamPolicy) {
+        return getPolicyAsync(iamPolicy.policyArn());
+    }
+
+    public static Try<Policy> attachedPolicyToPolicy(AttachedPolicy iamPolicy) {
+        return awaitWithSpinner(() -> attachedPolicyToPolicyAsync(iamPolicy),
                 "policy " + Arn.fromString(iamPolicy.policyArn()).resourceAsString(), CONVERT);
     }
 
-    public static Try<DetachRolePolicyResponse> detachPolicyFromRole(AttachedPolicy iamPolicy, String roleName) {
+    public static CompletableFuture<DetachRolePolicyResponse> detachPolicyFromRoleAsync(AttachedPolicy iamPolicy, String roleName) {
         DetachRolePolicyRequest detachRolePolicyRequest = DetachRolePolicyRequest.builder()
                 .policyArn(iamPolicy.policyArn())
                 .roleName(roleName)
                 .build();
 
-        return resultWithSpinner(() -> iamClient().detachRolePolicy(detachRolePolicyRequest),
+        // The attachment count of the policy and the policies of the role change
+        return invalidatingAsync(() -> resultAsync(detachRolePolicyRequest, request -> iamAsyncClient().detachRolePolicy(request)),
+                policyResource(iamPolicy.policyArn()), roleResource(roleName));
+    }
+
+    public static Try<DetachRolePolicyResponse> detachPolicyFromRole(AttachedPolicy iamPolicy, String roleName) {
+        return awaitWithSpinner(() -> detachPolicyFromRoleAsync(iamPolicy, roleName),
                 "policy " + iamPolicy.policyArn(), DETACH);
     }
 
-    public static Try<DeletePolicyResponse> deletePolicy(Policy iamPolicy) {
+    public static CompletableFuture<DeletePolicyResponse> deletePolicyAsync(Policy iamPolicy) {
         DeletePolicyRequest deletePolicyRequest = DeletePolicyRequest.builder()
                 .policyArn(iamPolicy.arn())
                 .build();
 
-        return resultWithSpinner(() -> iamClient().deletePolicy(deletePolicyRequest),
+        // The policy may still look attached for a moment after it was detached
+        return invalidatingAsync(() -> deleteAsync(deletePolicyRequest, request -> iamAsyncClient().deletePolicy(request),
+                        NoSuchEntityException.class, () -> DeletePolicyResponse.builder().build(), "DeleteConflict"),
+                policyResource(iamPolicy.arn()));
+    }
+
+    public static Try<DeletePolicyResponse> deletePolicy(Policy iamPolicy) {
+        return awaitWithSpinner(() -> deletePolicyAsync(iamPolicy),
                 "policy " + iamPolicy.policyName(), DELETE);
     }
 
-    public static Try<DeleteRoleResponse> deleteRole(String roleName) {
+    public static CompletableFuture<DeleteRoleResponse> deleteRoleAsync(String roleName) {
         DeleteRoleRequest deleteRoleRequest = DeleteRoleRequest.builder()
                 .roleName(roleName)
                 .build();
 
-        return resultWithSpinner(() -> iamClient().deleteRole(deleteRoleRequest),
+        // The role may still look like it has policies attached for a moment after they were detached
+        return invalidatingAsync(() -> deleteAsync(deleteRoleRequest, request -> iamAsyncClient().deleteRole(request),
+                        NoSuchEntityException.class, () -> DeleteRoleResponse.builder().build(), "DeleteConflict"),
+                roleResource(roleName));
+    }
+
+    public static Try<DeleteRoleResponse> deleteRole(String roleName) {
+        return awaitWithSpinner(() -> deleteRoleAsync(roleName),
                 "role " + roleName, DELETE);
     }
 }
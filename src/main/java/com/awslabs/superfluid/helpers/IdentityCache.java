@@ -0,0 +1,146 @@
+package com.awslabs.superfluid.helpers;
+
+import io.vavr.Function0;
+import io.vavr.control.Option;
+import io.vavr.control.Try;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.Properties;
+
+/**
+ * Keeps values that are slow to resolve but rarely change (the account ID and region) in a small properties file in the
+ * cache directory so they don't have to be resolved on every run. Entries expire after a TTL.
+ * <p>
+ * Writers take a lock on a separate lock file, merge their entry into the latest version of the file and replace it
+ * with an atomic move, so concurrent runs never see a partially written file or lose each other's entries. Any problem
+ * with the cache is ignored and the value is resolved normally, it is only an optimization.
+ */
+public class IdentityCache {
+    public static final Duration DEFAULT_TTL = Duration.ofHours(12);
+    public static final String DISABLE_ENVIRONMENT_VARIABLE = "SUPERFLUID_NO_CACHE";
+    private static final String FILE_NAME = "identity.properties";
+    private static final String LOCK_FILE_NAME = "identity.lock";
+    private static final String EXPIRES_SUFFIX = ".expires";
+    // Enough of the hash to tell credentials apart without making the access key recoverable
+    private static final int FINGERPRINT_LENGTH = 16;
+
+    private static volatile boolean enabled = System.getenv(DISABLE_ENVIRONMENT_VARIABLE) == null;
+
+    public static void setEnabled(boolean enabled) {
+        IdentityCache.enabled = enabled;
+    }
+
+    /**
+     * Returns the cached value for the key or resolves and caches it if it is missing or expired
+     */
+    public static String get(String key, Duration ttl, Function0<String> resolver) {
+        if (!enabled) {
+            return resolver.get();
+        }
+
+        return read(key)
+                .getOrElse(() -> {
+                    String value = resolver.get();
+                    // Best effort, a failed write just means the value is resolved again next time
+                    Try.run(() -> write(key, value, Instant.now().plus(ttl)));
+                    return value;
+                });
+    }
+
+    /**
+     * A short one-way hash of a secret-ish value (e.g. an access key ID) that is safe to use in a cache key
+     */
+    public static String fingerprint(String value) {
+        return Try.of(() -> MessageDigest.getInstance("SHA-256"))
+                .map(messageDigest -> messageDigest.digest(value.getBytes(StandardCharsets.UTF_8)))
+                .map(hash -> HexFormat.of().formatHex(hash).substring(0, FINGERPRINT_LENGTH))
+                .get();
+    }
+
+    private static Path file() {
+        return Shared.cacheDirectory().resolve(FILE_NAME);
+    }
+
+    private static Option<String> read(String key) {
+        return Try.of(IdentityCache::load)
+                .toOption()
+                .filter(properties -> properties.containsKey(key))
+                .filter(properties -> !isExpired(properties, key))
+                .map(properties -> properties.getProperty(key));
+    }
+
+    private static boolean isExpired(Properties properties, String key) {
+        return Try.of(() -> Long.parseLong(properties.getProperty(key + EXPIRES_SUFFIX)))
+                .map(Instant::ofEpochMilli)
+                .map(expires -> expires.isBefore(Instant.now()))
+                // No or a broken expiration time, treat it as expired
+                .getOrElse(true);
+    }
+
+    private static Properties load() throws Exception {
+        Properties properties = new Properties();
+
+        if (!Files.exists(file())) {
+            return properties;
+        }
+
+        try (InputStream inputStream = Files.newInputStream(file())) {
+            properties.load(inputStream);
+        }
+
+        return properties;
+    }
+
+    // Synchronized since file locks only keep other processes out, not other threads
+    private static synchronized void write(String key, String value, Instant expires) throws Exception {
+        Files.createDirectories(Shared.cacheDirectory());
+        Path lockFile = Shared.cacheDirectory().resolve(LOCK_FILE_NAME);
+
+        try (FileChannel lockChannel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            FileLock fileLock = lockChannel.lock();
+
+            try {
+                // Re-read under the lock so entries written by other runs are kept
+                Properties properties = load();
+
+                // Drop expired entries while we're here so the file doesn't grow forever
+                properties.stringPropertyNames().stream()
+                        .filter(name -> !name.endsWith(EXPIRES_SUFFIX))
+                        .filter(name -> isExpired(properties, name))
+                        .forEach(name -> {
+                            properties.remove(name);
+                            properties.remove(name + EXPIRES_SUFFIX);
+                        });
+
+                properties.setProperty(key, value);
+                properties.setProperty(key + EXPIRES_SUFFIX, String.valueOf(expires.toEpochMilli()));
+
+                Path temporaryFile = Files.createTempFile(Shared.cacheDirectory(), FILE_NAME, ".tmp");
+
+                try {
+                    try (OutputStream outputStream = Files.newOutputStream(temporaryFile)) {
+                        properties.store(outputStream, "superfluid identity cache");
+                    }
+
+                    Files.move(temporaryFile, file(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } finally {
+                    Files.deleteIfExists(temporaryFile);
+                }
+            } finally {
+                fileLock.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.awslabs.superfluid.helpers;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import io.vavr.Lazy;
+import io.vavr.collection.List;
+import io.vavr.control.Option;
+import io.vavr.control.Try;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import static java.text.MessageFormat.format;
+
+/**
+ * A local index of what the list and describe calls returned, one file per account and region in the cache directory.
+ * Entries are keyed by the same resource names the request cache uses (e.g. iot:thing:my-thing) plus a field (e.g.
+ * principals) and hold a list of strings.
+ * <p>
+ * The file is append-only JSON Lines. Every successful list call appends the new value for the entity it listed and
+ * every successful mutation appends a tombstone for the entities it changed, so the index is refreshed incrementally
+ * for just the entities a command touched. The latest line for an entry wins when the file is loaded. Concurrent runs
+ * can share the file, and it is compacted when it is mostly stale lines.
+ * <p>
+ * Commands only read from the index when asked to (e.g. cleanup --from-index), otherwise it is only written to.
+ */
+public class Inventory {
+    public static final Duration DEFAULT_MAX_AGE = Duration.ofHours(1);
+    private static final String RESOURCE = "r";
+    private static final String FIELD = "f";
+    private static final String VALUES = "v";
+    private static final String TIME = "t";
+    private static final String DELETED = "d";
+    // Compact once the file has this many more lines than live entries
+    private static final int COMPACTION_SLACK = 1000;
+
+    private static volatile boolean enabled = System.getenv(IdentityCache.DISABLE_ENVIRONMENT_VARIABLE) == null;
+    private static volatile boolean readEnabled = false;
+    private static volatile Duration maxAge = DEFAULT_MAX_AGE;
+
+    private static final Lazy<Inventory> lazyInventory = Lazy.of(() -> new Inventory(Shared.cacheDirectory()
+            .resolve(format("inventory-{0}-{1}.jsonl", Shared.accountId(), Shared.regionString()))));
+
+    public static class Entry {
+        private final List<String> values;
+        private final Instant updated;
+
+        private Entry(List<String> values, Instant updated) {
+            this.values = values;
+            this.updated = updated;
+        }
+
+        public List<String> values() {
+            return values;
+        }
+
+        public Instant updated() {
+            return updated;
+        }
+    }
+
+    private final JsonLinesFile file;
+    // Resource -> field -> entry
+    private final Map<String, Map<String, Entry>> entries = new ConcurrentHashMap<>();
+
+    private Inventory(Path file) {
+        this.file = new JsonLinesFile(file);
+        Try.run(this::load);
+    }
+
+    public static void setEnabled(boolean enabled) {
+        Inventory.enabled = enabled;
+    }
+
+    /**
+     * Lets list calls be answered from the index when the entry is younger than the maximum age
+     */
+    public static void setReadEnabled(boolean readEnabled, Duration maxAge) {
+        Inventory.readEnabled = readEnabled;
+        Inventory.maxAge = maxAge;
+    }
+
+    public static Inventory inventory() {
+        return lazyInventory.get();
+    }
+
+    /**
+     * The entry, if reading from the index is enabled and the entry is fresh enough
+     */
+    public static Option<List<String>> lookup(String resource, String field) {
+        if (!enabled || !readEnabled) {
+            return Option.none();
+        }
+
+        return inventory().get(resource, field)
+                .filter(entry -> entry.updated().isAfter(Instant.now().minus(maxAge)))
+                .map(Entry::values);
+    }
+
+    public static void record(String resource, String field, List<String> values) {
+        if (!enabled) {
+            return;
+        }
+
+        inventory().put(resource, field, values);
+    }
+
+    public static void forget(String resource) {
+        if (!enabled) {
+            return;
+        }
+
+        inventory().remove(resource);
+    }
+
+    public Path file() {
+        return file.path();
+    }
+
+    public Option<Entry> get(String resource, String field) {
+        return Option.of(entries.get(resource))
+                .flatMap(fields -> Option.of(fields.get(field)));
+    }
+
+    /**
+     * Every resource in the index along with its fields
+     */
+    public io.vavr.collection.Map<String, io.vavr.collection.Map<String, Entry>> resources() {
+        return io.vavr.collection.HashMap.ofAll(entries)
+                .mapValues(io.vavr.collection.HashMap::ofAll);
+    }
+
+    public void put(String resource, String field, List<String> values) {
+        Entry entry = new Entry(values, Instant.now());
+        entries.computeIfAbsent(resource, ignore -> new ConcurrentHashMap<>()).put(field, entry);
+
+        // Best effort, the in-memory copy is still correct for this run
+        Try.run(() -> file.append(toJson(resource, field, entry)));
+    }
+
+    public void remove(String resource) {
+        if (entries.remove(resource) == null) {
+            // Nothing indexed, no need for a tombstone
+            return;
+        }
+
+        JsonObject jsonObject = new JsonObject();
+        jsonObject.addProperty(RESOURCE, resource);
+        jsonObject.addProperty(DELETED, true);
+        jsonObject.addProperty(TIME, Instant.now().toEpochMilli());
+
+        Try.run(() -> file.append(jsonObject));
+    }
+
+    public void clear() throws Exception {
+        entries.clear();
+        file.delete();
+    }
+
+    private void load() throws Exception {
+        file.load(this::apply, lines -> {
+            long liveEntries = entries.values().stream().mapToLong(Map::size).sum();
+
+            return Option.when(lines > (liveEntries * 2) + COMPACTION_SLACK, () -> entries.entrySet().stream()
+                    .flatMap(resource -> resource.getValue().entrySet().stream()
+                            .map(field -> toJson(resource.getKey(), field.getKey(), field.getValue()))));
+        });
+    }
+
+    private static JsonObject toJson(String resource, String field, Entry entry) {
+        JsonObject jsonObject = new JsonObject();
+        jsonObject.addProperty(RESOURCE, resource);
+        jsonObject.addProperty(FIELD, field);
+        JsonArray jsonArray = new JsonArray();
+        entry.values().forEach(jsonArray::add);
+        jsonObject.add(VALUES, jsonArray);
+        jsonObject.addProperty(TIME, entry.updated().toEpochMilli());
+
+        return jsonObject;
+    }
+
+    private void apply(JsonObject jsonObject) {
+        String resource = jsonObject.get(RESOURCE).getAsString();
+        Instant time = Instant.ofEpochMilli(jsonObject.get(TIME).getAsLong());
+
+        if (jsonObject.has(DELETED)) {
+            entries.remove(resource);
+            return;
+        }
+
+        List<String> values = List.ofAll(jsonObject.getAsJsonArray(VALUES))
+                .map(element -> element.getAsString());
+
+        entries.computeIfAbsent(resource, ignore -> new ConcurrentHashMap<>())
+                .put(jsonObject.get(FIELD).getAsString(), new Entry(values, time));
+    }
+}
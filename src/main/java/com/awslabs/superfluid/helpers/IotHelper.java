@@ -4,19 +4,72 @@ package com.awslabs.superfluid.helpers;
 import io.vavr.Tuple;
 import io.vavr.Tuple2;
 import io.vavr.collection.List;
+import io.vavr.control.Option;
 import io.vavr.control.Try;
 import software.amazon.awssdk.arns.Arn;
+import software.amazon.awssdk.core.async.SdkPublisher;
 import software.amazon.awssdk.services.iot.model.*;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static com.awslabs.superfluid.helpers.AwsSdkHelper.*;
+import static com.awslabs.superfluid.helpers.Shared.iotAsyncClient;
 import static com.awslabs.superfluid.helpers.Shared.iotClient;
 import static java.text.MessageFormat.format;
 
 public class IotHelper {
 
     public static final String IAM_CERT_IDENTIFIER = ":cert/";
+    // The largest page size the IoT list APIs accept
+    private static final int MAX_PAGE_SIZE = 250;
+
+    private static String policyResource(String policyName) {
+        return "iot:policy:" + policyName;
+    }
+
+    private static String targetResource(Arn target) {
+        return "iot:target:" + target;
+    }
+
+    private static String roleAliasResource(String roleAlias) {
+        return "iot:role-alias:" + roleAlias;
+    }
+
+    private static String thingResource(String thingName) {
+        return "iot:thing:" + thingName;
+    }
+
+    private static String thingGroupResource(String thingGroupName) {
+        return "iot:thing-group:" + thingGroupName;
+    }
+
+    private static String thingPrefixResource(String prefix) {
+        return "iot:things-with-prefix:" + prefix;
+    }
+
+    private static String countField(String field, long limit) {
+        return field + "-count-at-most-" + limit;
+    }
+
+    private static List<String> encodeCount(Long count) {
+        return List.of(String.valueOf(count));
+    }
+
+    private static Long decodeCount(List<String> values) {
+        return Long.valueOf(values.head());
+    }
+
+    // Policy names can't contain spaces so the name and ARN are kept in one string
+    private static List<String> encodePolicies(List<Policy> policies) {
+        return policies.map(policy -> policy.policyName() + " " + policy.policyArn());
+    }
+
+    private static List<Policy> decodePolicies(List<String> values) {
+        return values.map(value -> value.split(" ", 2))
+                .map(parts -> Policy.builder().policyName(parts[0]).policyArn(parts[1]).build());
+    }
 
     public static Try<Stream<String>> streamThingsInThingGroup(String thingGroupName) {
         ListThingsInThingGroupRequest listThingsInThingGroupRequest = ListThingsInThingGroupRequest.builder()
@@ -26,8 +79,67 @@ public class IotHelper {
         return resultStream(() -> iotClient().listThingsInThingGroupPaginator(listThingsInThingGroupRequest), ListThingsInThingGroupResponse::things);
     }
 
+    public static SdkPublisher<String> publishThingsInThingGroup(String thingGroupName) {
+        ListThingsInThingGroupRequest listThingsInThingGroupRequest = ListThingsInThingGroupRequest.builder()
+                .thingGroupName(thingGroupName)
+                .build();
+
+        return resultPublisher(() -> iotAsyncClient().listThingsInThingGroupPaginator(listThingsInThingGroupRequest), ListThingsInThingGroupResponse::things);
+    }
+
+    public static CompletableFuture<List<String>> listThingsInThingGroupAsync(String thingGroupName) {
+        return indexedAsync(thingGroupResource(thingGroupName), "things", () -> resultListAsync(() -> publishThingsInThingGroup(thingGroupName)));
+    }
+
     public static Try<List<String>> listThingsInThingGroup(String thingGroupName) {
-        return resultListWithSpinner(() -> streamThingsInThingGroup(thingGroupName), "things in thing group " + thingGroupName, LIST);
+        return awaitListWithSpinner(() -> listThingsInThingGroupAsync(thingGroupName), "things in thing group " + thingGroupName, LIST);
+    }
+
+    public static CompletableFuture<Long> countThingsInThingGroupAsync(String thingGroupName, long limit) {
+        // Only ask for as many results as we need so a single small page answers the question
+        ListThingsInThingGroupRequest listThingsInThingGroupRequest = ListThingsInThingGroupRequest.builder()
+                .thingGroupName(thingGroupName)
+                .maxResults(probePageSize(limit))
+                .build();
+
+        return indexedAsync(thingGroupResource(thingGroupName), countField("thing", limit), IotHelper::encodeCount, IotHelper::decodeCount,
+                () -> countAtMostAsync(() -> resultPublisher(() -> iotAsyncClient().listThingsInThingGroupPaginator(listThingsInThingGroupRequest), ListThingsInThingGroupResponse::things), limit));
+    }
+
+    public static Try<Long> countThingsInThingGroup(String thingGroupName, long limit) {
+        return awaitWithSpinner(() -> countThingsInThingGroupAsync(thingGroupName, limit), "things in thing group " + thingGroupName, LIST);
+    }
+
+    public static Try<Stream<String>> streamThingNames() {
+        ListThingsRequest listThingsRequest = ListThingsRequest.builder()
+                .build();
+
+        return resultStream(() -> iotClient().listThingsPaginator(listThingsRequest),
+                response -> response.things().stream().map(ThingAttribute::thingName).collect(Collectors.toList()));
+    }
+
+    public static SdkPublisher<String> publishThingNames() {
+        ListThingsRequest listThingsRequest = ListThingsRequest.builder()
+                .build();
+
+        return resultPublisher(() -> iotAsyncClient().listThingsPaginator(listThingsRequest),
+                response -> response.things().stream().map(ThingAttribute::thingName).collect(Collectors.toList()));
+    }
+
+    public static CompletableFuture<List<String>> listThingNamesWithPrefixAsync(String prefix) {
+        // This walks every thing in the account so a failed page is retried and the listing resumes from there
+        return indexedAsync(thingPrefixResource(prefix), "things",
+                () -> resumableListAsync((Option<String> token) -> iotAsyncClient().listThings(ListThingsRequest.builder().nextToken(token.getOrNull()).build()),
+                        response -> Option.of(response.nextToken()),
+                        // The ListThings API can't filter by name so the filtering is done on our side
+                        response -> response.things().stream()
+                                .map(ThingAttribute::thingName)
+                                .filter(thingName -> thingName.startsWith(prefix))
+                                .collect(Collectors.toList())));
+    }
+
+    public static Try<List<String>> listThingNamesWithPrefix(String prefix) {
+        return awaitListWithSpinner(() -> listThingNamesWithPrefixAsync(prefix), "things with the prefix " + prefix, LIST);
     }
 
     public static Try<Stream<String>> streamPrincipalsAttachedToThing(String thingName) {
@@ -38,8 +150,20 @@ public class IotHelper {
         return resultStream(() -> iotClient().listThingPrincipalsPaginator(listThingPrincipalsRequest), ListThingPrincipalsResponse::principals);
     }
 
+    public static SdkPublisher<String> publishPrincipalsAttachedToThing(String thingName) {
+        ListThingPrincipalsRequest listThingPrincipalsRequest = ListThingPrincipalsRequest.builder()
+                .thingName(thingName)
+                .build();
+
+        return resultPublisher(() -> iotAsyncClient().listThingPrincipalsPaginator(listThingPrincipalsRequest), ListThingPrincipalsResponse::principals);
+    }
+
+    public static CompletableFuture<List<String>> listPrincipalsAttachedToThingAsync(String thingName) {
+        return indexedAsync(thingResource(thingName), "principals", () -> resultListAsync(() -> publishPrincipalsAttachedToThing(thingName)));
+    }
+
     public static Try<List<String>> listPrincipalsAttachedToThing(String thingName) {
-        return resultListWithSpinner(() -> streamPrincipalsAttachedToThing(thingName), "principals attached to the thing " + thingName, LIST);
+        return awaitListWithSpinner(() -> listPrincipalsAttachedToThingAsync(thingName), "principals attached to the thing " + thingName, LIST);
     }
 
     public static Try<Stream<Policy>> streamAttachedPolicies(Arn target) {
@@ -51,8 +175,32 @@ public class IotHelper {
                 ListAttachedPoliciesResponse::policies);
     }
 
+    public static SdkPublisher<Policy> publishAttachedPolicies(Arn target) {
+        ListAttachedPoliciesRequest listAttachedPoliciesRequest = ListAttachedPoliciesRequest.builder()
+                .target(target.toString())
+                .build();
+
+        return resultPublisher(() -> iotAsyncClient().listAttachedPoliciesPaginator(listAttachedPoliciesRequest),
+                ListAttachedPoliciesResponse::policies);
+    }
+
+    private static CompletableFuture<List<Policy>> listPoliciesAttachedToTargetAsync(Arn target) {
+        ListAttachedPoliciesRequest listAttachedPoliciesRequest = ListAttachedPoliciesRequest.builder()
+                .target(target.toString())
+                .build();
+
+        return cachedAsync(targetResource(target), listAttachedPoliciesRequest,
+                () -> indexedAsync(targetResource(target), "policies", IotHelper::encodePolicies, IotHelper::decodePolicies,
+                        () -> resultListAsync(() -> publishAttachedPolicies(target))));
+    }
+
+    public static CompletableFuture<Tuple2<Arn, List<Policy>>> listAttachedPoliciesAsync(Arn target) {
+        return listPoliciesAttachedToTargetAsync(target)
+                .thenApply(value -> Tuple.of(target, value));
+    }
+
     public static Try<Tuple2<Arn, List<Policy>>> listAttachedPolicies(Arn target) {
-        return resultListWithSpinner(() -> streamAttachedPolicies(target), format("policies attached to target {0}", target.resourceAsString()), LIST)
+        return awaitListWithSpinner(() -> listPoliciesAttachedToTargetAsync(target), format("policies attached to target {0}", target.resourceAsString()), LIST)
                 .map(value -> Tuple.of(target, value));
     }
 
@@ -65,96 +213,153 @@ public class IotHelper {
         return principals.filter(principal -> principal.resource().resourceType().filter(type -> type.equals("cert")).isPresent());
     }
 
-    public static Try<RoleAliasDescription> describeRoleAlias(String roleAlias) {
+    public static CompletableFuture<RoleAliasDescription> describeRoleAliasAsync(String roleAlias) {
         DescribeRoleAliasRequest describeRoleAliasRequest = DescribeRoleAliasRequest.builder()
                 .roleAlias(roleAlias)
                 .build();
 
-        return resultWithSpinner(() -> iotClient().describeRoleAlias(describeRoleAliasRequest),
-                DescribeRoleAliasResponse::roleAliasDescription,
-                "role alias " + roleAlias, DESCRIBE);
+        // Only the role the alias points to is kept in the inventory
+        return cachedAsync(roleAliasResource(roleAlias), describeRoleAliasRequest,
+                () -> indexedAsync(roleAliasResource(roleAlias), "role",
+                        roleAliasDescription -> List.of(roleAliasDescription.roleArn()),
+                        values -> RoleAliasDescription.builder().roleAlias(roleAlias).roleArn(values.head()).build(),
+                        () -> resultAsync(describeRoleAliasRequest, request -> iotAsyncClient().describeRoleAlias(request), DescribeRoleAliasResponse::roleAliasDescription)));
     }
 
-    public static Try<DeleteRoleAliasResponse> deleteRoleAlias(String roleAlias) {
+    public static Try<RoleAliasDescription> describeRoleAlias(String roleAlias) {
+        return awaitWithSpinner(() -> describeRoleAliasAsync(roleAlias), "role alias " + roleAlias, DESCRIBE);
+    }
+
+    public static CompletableFuture<DeleteRoleAliasResponse> deleteRoleAliasAsync(String roleAlias) {
         DeleteRoleAliasRequest deleteRoleAliasRequest = DeleteRoleAliasRequest.builder()
                 .roleAlias(roleAlias)
                 .build();
 
-        return resultWithSpinner(() -> iotClient().deleteRoleAlias(deleteRoleAliasRequest),
-                "role alias " + roleAlias, DELETE);
+        return invalidatingAsync(() -> deleteAsync(deleteRoleAliasRequest, request -> iotAsyncClient().deleteRoleAlias(request),
+                        ResourceNotFoundException.class, () -> DeleteRoleAliasResponse.builder().build()),
+                roleAliasResource(roleAlias));
     }
 
-    public static Try<DeleteThingGroupResponse> deleteThingGroup(String thingGroupName) {
+    public static Try<DeleteRoleAliasResponse> deleteRoleAlias(String roleAlias) {
+        return awaitWithSpinner(() -> deleteRoleAliasAsync(roleAlias), "role alias " + roleAlias, DELETE);
+    }
+
+    public static CompletableFuture<DeleteThingGroupResponse> deleteThingGroupAsync(String thingGroupName) {
         DeleteThingGroupRequest deleteThingGroupRequest = DeleteThingGroupRequest.builder()
                 .thingGroupName(thingGroupName)
                 .build();
 
-        return resultWithSpinner(() -> iotClient().deleteThingGroup(deleteThingGroupRequest),
-                "thing group " + thingGroupName, DELETE);
+        return invalidatingAsync(() -> deleteAsync(deleteThingGroupRequest, request -> iotAsyncClient().deleteThingGroup(request),
+                        ResourceNotFoundException.class, () -> DeleteThingGroupResponse.builder().build()),
+                thingGroupResource(thingGroupName));
     }
 
-    public static Try<DeleteThingResponse> deleteThing(String thingName) {
+    public static Try<DeleteThingGroupResponse> deleteThingGroup(String thingGroupName) {
+        return awaitWithSpinner(() -> deleteThingGroupAsync(thingGroupName), "thing group " + thingGroupName, DELETE);
+    }
+
+    public static CompletableFuture<DeleteThingResponse> deleteThingAsync(String thingName) {
         DeleteThingRequest deleteThingRequest = DeleteThingRequest.builder()
                 .thingName(thingName)
                 .build();
 
-        return resultWithSpinner(() -> iotClient().deleteThing(deleteThingRequest),
-                "thing " + thingName, DELETE);
+        // The thing is also dropped from every prefix listing it could show up in
+        String[] resources = List.range(0, thingName.length() + 1)
+                .map(length -> thingPrefixResource(thingName.substring(0, length)))
+                .prepend(thingResource(thingName))
+                .toJavaArray(String[]::new);
+
+        return invalidatingAsync(() -> deleteAsync(deleteThingRequest, request -> iotAsyncClient().deleteThing(request),
+                        ResourceNotFoundException.class, () -> DeleteThingResponse.builder().build()),
+                resources);
     }
 
-    public static Try<DetachThingPrincipalResponse> detachPrincipalFromThing(String thingName, Arn principal) {
+    public static Try<DeleteThingResponse> deleteThing(String thingName) {
+        return awaitWithSpinner(() -> deleteThingAsync(thingName), "thing " + thingName, DELETE);
+    }
+
+    public static CompletableFuture<DetachThingPrincipalResponse> detachPrincipalFromThingAsync(String thingName, Arn principal) {
         DetachThingPrincipalRequest detachThingPrincipalRequest = DetachThingPrincipalRequest.builder()
                 .thingName(thingName)
                 .principal(principal.toString())
                 .build();
 
-        return resultWithSpinner(() -> iotClient().detachThingPrincipal(detachThingPrincipalRequest),
+        return invalidatingAsync(() -> resultAsync(detachThingPrincipalRequest, request -> iotAsyncClient().detachThingPrincipal(request)),
+                thingResource(thingName));
+    }
+
+    public static Try<DetachThingPrincipalResponse> detachPrincipalFromThing(String thingName, Arn principal) {
+        return awaitWithSpinner(() -> detachPrincipalFromThingAsync(thingName, principal),
                 format("principal {0} from thing {1}", principal.resourceAsString(), thingName), DETACH);
     }
 
-    public static Try<DetachPolicyResponse> detachPolicyFromTarget(Arn target, Policy policy) {
+    public static CompletableFuture<DetachPolicyResponse> detachPolicyFromTargetAsync(Arn target, Policy policy) {
         DetachPolicyRequest detachPolicyRequest = DetachPolicyRequest.builder()
                 .target(target.toString())
                 .policyName(policy.policyName())
                 .build();
 
-        return resultWithSpinner(() -> iotClient().detachPolicy(detachPolicyRequest),
+        // Both the targets of the policy and the policies of the target change
+        return invalidatingAsync(() -> resultAsync(detachPolicyRequest, request -> iotAsyncClient().detachPolicy(request)),
+                policyResource(policy.policyName()), targetResource(target));
+    }
+
+    public static Try<DetachPolicyResponse> detachPolicyFromTarget(Arn target, Policy policy) {
+        return awaitWithSpinner(() -> detachPolicyFromTargetAsync(target, policy),
                 format("policy {0} from target {1}", policy.policyName(), target.resourceAsString()), DETACH);
     }
 
-    public static Try<DeletePolicyResponse> deletePolicy(Policy policy) {
+    public static CompletableFuture<DeletePolicyResponse> deletePolicyAsync(Policy policy) {
         DeletePolicyRequest deletePolicyRequest = DeletePolicyRequest.builder()
                 .policyName(policy.policyName())
                 .build();
 
-        return resultWithSpinner(() -> iotClient().deletePolicy(deletePolicyRequest),
-                format("policy {0}", policy.policyName()), DELETE);
+        // The policy may still look attached for a moment after it was detached
+        return invalidatingAsync(() -> deleteAsync(deletePolicyRequest, request -> iotAsyncClient().deletePolicy(request),
+                        ResourceNotFoundException.class, () -> DeletePolicyResponse.builder().build(), "DeleteConflictException"),
+                policyResource(policy.policyName()));
     }
 
-    public static Try<DeleteCertificateResponse> purgeCertificate(Arn certificateArn) {
+    public static Try<DeletePolicyResponse> deletePolicy(Policy policy) {
+        return awaitWithSpinner(() -> deletePolicyAsync(policy), format("policy {0}", policy.policyName()), DELETE);
+    }
+
+    public static CompletableFuture<UpdateCertificateResponse> deactivateCertificateAsync(Arn certificateArn) {
         UpdateCertificateRequest updateCertificateRequest = UpdateCertificateRequest.builder()
                 .certificateId(certificateArn.resource().resource())
                 .newStatus(CertificateStatus.INACTIVE)
                 .build();
 
-        Try<UpdateCertificateResponse> tryUpdateCertificate = resultWithSpinner(() -> iotClient().updateCertificate(updateCertificateRequest),
-                format("certificate {0}", certificateArn.resourceAsString()), DEACTIVATE);
+        return resultAsync(updateCertificateRequest, request -> iotAsyncClient().updateCertificate(request));
+    }
 
-        DeleteCertificateRequest deleteCertificateRequest = DeleteCertificateRequest.builder()
-                .certificateId(certificateArn.resource().resource())
-                .build();
+    public static CompletableFuture<DeleteCertificateResponse> purgeCertificateAsync(Arn certificateArn) {
+        // Certificates must be deactivated before they can be deleted
+        return deactivateCertificateAsync(certificateArn)
+                .thenCompose(result -> deleteCertificateAsync(certificateArn));
+    }
+
+    public static Try<DeleteCertificateResponse> purgeCertificate(Arn certificateArn) {
+        Try<UpdateCertificateResponse> tryUpdateCertificate = awaitWithSpinner(() -> deactivateCertificateAsync(certificateArn),
+                format("certificate {0}", certificateArn.resourceAsString()), DEACTIVATE);
 
         // If the deactivation fails, this is a NOP but returns the expected Try type
         return tryUpdateCertificate.map(result -> deleteCertificate(certificateArn).get());
     }
 
-    public static Try<DeleteCertificateResponse> deleteCertificate(Arn certificateArn) {
+    public static CompletableFuture<DeleteCertificateResponse> deleteCertificateAsync(Arn certificateArn) {
         DeleteCertificateRequest deleteCertificateRequest = DeleteCertificateRequest.builder()
                 .certificateId(certificateArn.resource().resource())
                 .build();
 
-        // If the deactivation fails, this is a NOP but returns the expected Try type
-        return resultWithSpinner(() -> iotClient().deleteCertificate(deleteCertificateRequest),
+        // The certificate may still look active or attached for a moment after it was deactivated and detached
+        return invalidatingAsync(() -> deleteAsync(deleteCertificateRequest, request -> iotAsyncClient().deleteCertificate(request),
+                        ResourceNotFoundException.class, () -> DeleteCertificateResponse.builder().build(), "DeleteConflictException", "CertificateStateException"),
+                targetResource(certificateArn));
+    }
+
+    public static Try<DeleteCertificateResponse> deleteCertificate(Arn certificateArn) {
+        return awaitWithSpinner(() -> deleteCertificateAsync(certificateArn),
                 format("certificate {0}", certificateArn.resourceAsString()), DELETE);
     }
 
@@ -166,8 +371,54 @@ public class IotHelper {
         return resultStream(() -> iotClient().listTargetsForPolicyPaginator(listTargetsForPolicyRequest), ListTargetsForPolicyResponse::targets);
     }
 
+    public static SdkPublisher<String> publishTargetsForIotPolicy(String iotPolicyName) {
+        ListTargetsForPolicyRequest listTargetsForPolicyRequest = ListTargetsForPolicyRequest.builder()
+                .policyName(iotPolicyName)
+                .build();
+
+        return resultPublisher(() -> iotAsyncClient().listTargetsForPolicyPaginator(listTargetsForPolicyRequest), ListTargetsForPolicyResponse::targets);
+    }
+
+    public static CompletableFuture<List<String>> listTargetsForIotPolicyAsync(String iotPolicyName) {
+        ListTargetsForPolicyRequest listTargetsForPolicyRequest = ListTargetsForPolicyRequest.builder()
+                .policyName(iotPolicyName)
+                .build();
+
+        // Policies are often shared by many principals so the same policy shows up more than once
+        return cachedAsync(policyResource(iotPolicyName), listTargetsForPolicyRequest,
+                () -> indexedAsync(policyResource(iotPolicyName), "targets", () -> resultListAsync(() -> publishTargetsForIotPolicy(iotPolicyName))));
+    }
+
+    /**
+     * Drops everything cached about the policy, in memory and in the inventory, so the next lookup asks AWS again
+     */
+    public static void invalidatePolicy(String iotPolicyName) {
+        invalidate(policyResource(iotPolicyName));
+    }
+
+    public static CompletableFuture<Long> countTargetsForIotPolicyAsync(String iotPolicyName, long limit) {
+        // Widely shared policies can have a huge number of targets, only page through as many as we need
+        ListTargetsForPolicyRequest listTargetsForPolicyRequest = ListTargetsForPolicyRequest.builder()
+                .policyName(iotPolicyName)
+                .pageSize(probePageSize(limit))
+                .build();
+
+        return cachedAsync(policyResource(iotPolicyName), Tuple.of(listTargetsForPolicyRequest, limit),
+                () -> indexedAsync(policyResource(iotPolicyName), countField("target", limit), IotHelper::encodeCount, IotHelper::decodeCount,
+                        () -> countAtMostAsync(() -> resultPublisher(() -> iotAsyncClient().listTargetsForPolicyPaginator(listTargetsForPolicyRequest), ListTargetsForPolicyResponse::targets), limit)));
+    }
+
+    public static Try<Long> countTargetsForIotPolicy(String iotPolicyName, long limit) {
+        return awaitWithSpinner(() -> countTargetsForIotPolicyAsync(iotPolicyName, limit),
+                "targets for IoT policy " + iotPolicyName, LIST);
+    }
+
+    private static int probePageSize(long limit) {
+        return (int) Math.min(limit, MAX_PAGE_SIZE);
+    }
+
     public static Try<List<String>> listTargetsForIotPolicy(String iotPolicyName) {
-        return resultListWithSpinner(() -> streamTargetsForIotPolicy(iotPolicyName),
+        return awaitListWithSpinner(() -> listTargetsForIotPolicyAsync(iotPolicyName),
                 "targets for IoT policy " + iotPolicyName, LIST);
     }
 }
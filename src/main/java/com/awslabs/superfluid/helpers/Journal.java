@@ -0,0 +1,230 @@
+package com.awslabs.superfluid.helpers;
+
+import com.google.gson.JsonObject;
+import io.vavr.Lazy;
+import io.vavr.control.Option;
+import io.vavr.control.Try;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import static java.text.MessageFormat.format;
+
+/**
+ * A write-ahead journal of cleanup work, one file per account and region in the cache directory. Before anything is
+ * changed the plan for a unit of work (e.g. a Greengrass system) is written to the journal, then every operation is
+ * recorded as it completes along with progress checkpoints for long running operations. When the work is finished its
+ * records are dropped.
+ * <p>
+ * If a run is interrupted the next run finds the plan and the completed operations in the journal and carries on from
+ * there instead of discovering everything again and failing on resources that are already gone.
+ * <p>
+ * Unlike the caches the journal can't be turned off with --no-cache, it is what makes reruns safe. Every record is
+ * forced to disk before the call returns, and a record that can't be written is reported instead of ignored.
+ */
+public class Journal {
+    private static final String SCOPE = "s";
+    private static final String EVENT = "e";
+    private static final String OPERATION = "o";
+    private static final String VALUE = "v";
+    private static final String TIME = "t";
+    private static final String PLANNED = "planned";
+    private static final String DONE = "done";
+    private static final String PROGRESS = "progress";
+    private static final String FINISHED = "finished";
+    // Compact once the file has this many more lines than live records
+    private static final int COMPACTION_SLACK = 1000;
+
+    private static final Lazy<Journal> lazyJournal = Lazy.of(() -> new Journal(Shared.cacheDirectory()
+            .resolve(format("journal-{0}-{1}.jsonl", Shared.accountId(), Shared.regionString()))));
+
+    // Everything recorded for one unit of work that hasn't finished yet
+    private static class Scope {
+        private volatile JsonObject plan;
+        private final Set<String> done = ConcurrentHashMap.newKeySet();
+        private final Map<String, Long> progress = new ConcurrentHashMap<>();
+
+        private long size() {
+            return 1 + done.size() + progress.size();
+        }
+    }
+
+    private final JsonLinesFile file;
+    private final Map<String, Scope> scopes = new ConcurrentHashMap<>();
+    private final AtomicBoolean writeFailed = new AtomicBoolean(false);
+
+    private Journal(Path file) {
+        this.file = new JsonLinesFile(file, true);
+        Try.run(this::load);
+    }
+
+    public static Journal journal() {
+        return lazyJournal.get();
+    }
+
+    public Path file() {
+        return file.path();
+    }
+
+    /**
+     * The plan of a unit of work that was started but never finished
+     */
+    public Option<JsonObject> planned(String scope) {
+        return Option.of(scopes.get(scope))
+                .flatMap(value -> Option.of(value.plan));
+    }
+
+    /**
+     * True once any record couldn't be written, an interrupted run may not be able to resume from the journal
+     */
+    public boolean writeFailed() {
+        return writeFailed.get();
+    }
+
+    /**
+     * Records the plan before any of the work is done, this replaces anything recorded for an earlier attempt. The work
+     * must not start when this fails.
+     */
+    public Try<Void> plan(String scope, JsonObject plan) {
+        Scope value = new Scope();
+        value.plan = plan;
+        scopes.put(scope, value);
+
+        JsonObject jsonObject = record(scope, PLANNED);
+        jsonObject.add(VALUE, plan);
+
+        return append(jsonObject);
+    }
+
+    /**
+     * True once any operation of a unit of work completed or made progress
+     */
+    public boolean started(String scope) {
+        return Option.of(scopes.get(scope))
+                .map(value -> !value.done.isEmpty() || !value.progress.isEmpty())
+                .getOrElse(false);
+    }
+
+    public boolean isDone(String scope, String operation) {
+        return Option.of(scopes.get(scope))
+                .map(value -> value.done.contains(operation))
+                .getOrElse(false);
+    }
+
+    public Try<Void> done(String scope, String operation) {
+        scopes.computeIfAbsent(scope, ignore -> new Scope()).done.add(operation);
+
+        JsonObject jsonObject = record(scope, DONE);
+        jsonObject.addProperty(OPERATION, operation);
+
+        return append(jsonObject);
+    }
+
+    public long progress(String scope, String operation) {
+        return Option.of(scopes.get(scope))
+                .flatMap(value -> Option.of(value.progress.get(operation)))
+                .getOrElse(0L);
+    }
+
+    /**
+     * Checkpoints how far a long running operation got, the count is the total so far and not an increment. Checkpoints
+     * from concurrent parts of an operation can arrive out of order so the count never goes down.
+     */
+    public Try<Void> progress(String scope, String operation, long count) {
+        scopes.computeIfAbsent(scope, ignore -> new Scope()).progress.merge(operation, count, Math::max);
+
+        JsonObject jsonObject = record(scope, PROGRESS);
+        jsonObject.addProperty(OPERATION, operation);
+        jsonObject.addProperty(VALUE, count);
+
+        return append(jsonObject);
+    }
+
+    /**
+     * Drops everything recorded for a unit of work, either because it finished or because it should start over
+     */
+    public Try<Void> finish(String scope) {
+        if (scopes.remove(scope) == null) {
+            return Try.success(null);
+        }
+
+        return append(record(scope, FINISHED));
+    }
+
+    private static JsonObject record(String scope, String event) {
+        JsonObject jsonObject = new JsonObject();
+        jsonObject.addProperty(SCOPE, scope);
+        jsonObject.addProperty(EVENT, event);
+        jsonObject.addProperty(TIME, Instant.now().toEpochMilli());
+
+        return jsonObject;
+    }
+
+    private Try<Void> append(JsonObject jsonObject) {
+        // The in-memory copy is still correct for this run, the user is told once that the journal stopped working
+        return Try.run(() -> file.append(jsonObject))
+                .onFailure(e -> {
+                    if (writeFailed.compareAndSet(false, true)) {
+                        Shared.println("Failed to write to the journal {}, an interrupted cleanup may not be resumable [{}]", file(), e.getMessage());
+                    }
+                });
+    }
+
+    private void load() throws Exception {
+        file.load(this::apply, lines -> {
+            long liveRecords = scopes.values().stream().mapToLong(Scope::size).sum();
+
+            return Option.when(lines > (liveRecords * 2) + COMPACTION_SLACK,
+                    () -> scopes.entrySet().stream().flatMap(entry -> toJson(entry.getKey(), entry.getValue())));
+        });
+    }
+
+    private Stream<JsonObject> toJson(String scope, Scope value) {
+        Stream<JsonObject> plan = Stream.ofNullable(value.plan)
+                .map(planValue -> {
+                    JsonObject jsonObject = record(scope, PLANNED);
+                    jsonObject.add(VALUE, planValue);
+                    return jsonObject;
+                });
+
+        Stream<JsonObject> done = value.done.stream()
+                .map(operation -> {
+                    JsonObject jsonObject = record(scope, DONE);
+                    jsonObject.addProperty(OPERATION, operation);
+                    return jsonObject;
+                });
+
+        Stream<JsonObject> progress = value.progress.entrySet().stream()
+                .map(entry -> {
+                    JsonObject jsonObject = record(scope, PROGRESS);
+                    jsonObject.addProperty(OPERATION, entry.getKey());
+                    jsonObject.addProperty(VALUE, entry.getValue());
+                    return jsonObject;
+                });
+
+        return Stream.of(plan, done, progress).flatMap(stream -> stream);
+    }
+
+    private void apply(JsonObject jsonObject) {
+        String scope = jsonObject.get(SCOPE).getAsString();
+
+        switch (jsonObject.get(EVENT).getAsString()) {
+            case PLANNED -> {
+                Scope value = new Scope();
+                value.plan = jsonObject.getAsJsonObject(VALUE);
+                scopes.put(scope, value);
+            }
+            case DONE -> scopes.computeIfAbsent(scope, ignore -> new Scope()).done.add(jsonObject.get(OPERATION).getAsString());
+            case PROGRESS -> scopes.computeIfAbsent(scope, ignore -> new Scope()).progress.merge(jsonObject.get(OPERATION).getAsString(), jsonObject.get(VALUE).getAsLong(), Math::max);
+            case FINISHED -> scopes.remove(scope);
+            default -> {
+                // Written by a newer version, ignore it
+            }
+        }
+    }
+}
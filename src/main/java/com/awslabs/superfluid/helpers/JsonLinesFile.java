@@ -0,0 +1,140 @@
+package com.awslabs.superfluid.helpers;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import io.vavr.control.Option;
+import io.vavr.control.Try;
+
+import java.io.BufferedWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+import java.util.stream.Stream;
+
+/**
+ * An append-only file of JSON objects, one per line, that can be shared by concurrent runs. Appends, rewrites (e.g. to
+ * compact the file) and deletes all hold a lock on a separate lock file. The live file can't be locked itself since a
+ * rewrite replaces it, a run waiting on the lock of the old file would then append to a file that is already gone.
+ * <p>
+ * Durable files force every append to disk before it returns, for records that have to survive a crash.
+ */
+class JsonLinesFile {
+    private static final String LOCK_SUFFIX = ".lock";
+
+    private interface Locked<T> {
+        T run() throws Exception;
+    }
+
+    private final Path file;
+    private final Path lockFile;
+    private final boolean durable;
+
+    JsonLinesFile(Path file) {
+        this(file, false);
+    }
+
+    JsonLinesFile(Path file, boolean durable) {
+        this.file = file;
+        this.lockFile = file.resolveSibling(file.getFileName() + LOCK_SUFFIX);
+        this.durable = durable;
+    }
+
+    Path path() {
+        return file;
+    }
+
+    /**
+     * Reads every line in order, then rewrites the file with what the compaction returns for the number of lines read,
+     * if anything. Both happen under the lock so nothing another run appends in between is lost.
+     */
+    synchronized void load(Consumer<JsonObject> consumer, LongFunction<Option<Stream<JsonObject>>> compaction) throws Exception {
+        withLock(() -> {
+            long lines = forEach(consumer);
+
+            for (Stream<JsonObject> jsonObjects : compaction.apply(lines)) {
+                rewrite(jsonObjects);
+            }
+
+            return null;
+        });
+    }
+
+    // Synchronized since file locks only keep other processes out, not other threads
+    synchronized void append(JsonObject jsonObject) throws Exception {
+        ByteBuffer line = ByteBuffer.wrap((jsonObject + "\n").getBytes(StandardCharsets.UTF_8));
+
+        withLock(() -> {
+            try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                while (line.hasRemaining()) {
+                    fileChannel.write(line);
+                }
+
+                if (durable) {
+                    fileChannel.force(true);
+                }
+            }
+
+            return null;
+        });
+    }
+
+    synchronized void delete() throws Exception {
+        withLock(() -> Files.deleteIfExists(file));
+    }
+
+    // A line cut short by a crash is just skipped
+    private long forEach(Consumer<JsonObject> consumer) throws Exception {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+
+        try (Stream<String> stream = Files.lines(file, StandardCharsets.UTF_8)) {
+            return stream.map(line -> Try.run(() -> consumer.accept(JsonParser.parseString(line).getAsJsonObject())))
+                    .count();
+        }
+    }
+
+    private void rewrite(Stream<JsonObject> jsonObjects) throws Exception {
+        Path temporaryFile = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(temporaryFile, StandardCharsets.UTF_8)) {
+                for (JsonObject jsonObject : (Iterable<JsonObject>) jsonObjects::iterator) {
+                    writer.write(jsonObject.toString());
+                    writer.newLine();
+                }
+            }
+
+            if (durable) {
+                try (FileChannel fileChannel = FileChannel.open(temporaryFile, StandardOpenOption.WRITE)) {
+                    fileChannel.force(true);
+                }
+            }
+
+            Files.move(temporaryFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+    }
+
+    private <T> T withLock(Locked<T> locked) throws Exception {
+        Files.createDirectories(file.getParent());
+
+        try (FileChannel lockChannel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            FileLock fileLock = lockChannel.lock();
+
+            try {
+                return locked.run();
+            } finally {
+                fileLock.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.awslabs.superfluid.helpers;
+
+import com.google.gson.JsonObject;
+import io.vavr.Lazy;
+import io.vavr.collection.List;
+import io.vavr.control.Option;
+import io.vavr.control.Try;
+
+import java.io.PrintStream;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Everything the CLI prints goes through here. Callers only queue their text, a background thread takes whatever has
+ * piled up and writes it with one write and one flush per stream, so threads producing a lot of output never wait on
+ * the console.
+ * <p>
+ * In the default text format the human-readable output goes to stdout. With --output jsonl stdout only has one JSON
+ * object per line describing each AWS call (see {@link OutputEvents}) and the human-readable output goes to stderr.
+ */
+public class Output {
+    public enum Format {TEXT, JSONL}
+
+    // Don't let a single write grow without bound when the console is far behind
+    private static final int MAX_BATCH = 4096;
+    private static final long CLOSE_TIMEOUT_SECONDS = 5;
+
+    private static class Chunk {
+        private final PrintStream stream;
+        private final String text;
+        private final CountDownLatch written;
+
+        private Chunk(PrintStream stream, String text, CountDownLatch written) {
+            this.stream = stream;
+            this.text = text;
+            this.written = written;
+        }
+    }
+
+    // Tells the writer to stop after everything before it has been written
+    private static final Chunk CLOSE = new Chunk(null, null, null);
+
+    private static volatile Format format = Format.TEXT;
+    private static final BlockingQueue<Chunk> queue = new LinkedBlockingQueue<>();
+    private static final ConcurrentLinkedQueue<Runnable> closeHooks = new ConcurrentLinkedQueue<>();
+    private static final Lazy<Thread> lazyWriter = Lazy.of(Output::startWriter);
+
+    public static void setFormat(Format format) {
+        Output.format = format;
+    }
+
+    public static Format format() {
+        return format;
+    }
+
+    public static boolean jsonl() {
+        return format == Format.JSONL;
+    }
+
+    /**
+     * Queues human-readable text, it is written as is so it has to include its own line separators
+     */
+    public static void text(String text) {
+        enqueue(new Chunk(jsonl() ? System.err : System.out, text, null));
+    }
+
+    /**
+     * Queues a structured event, only written with --output jsonl
+     */
+    public static void event(JsonObject event) {
+        if (!jsonl()) {
+            return;
+        }
+
+        event.addProperty("time", Instant.now().toString());
+        enqueue(new Chunk(System.out, event + System.lineSeparator(), null));
+    }
+
+    /**
+     * Waits until everything queued so far has been written, e.g. before asking the user a question
+     */
+    public static void flush() {
+        CountDownLatch written = new CountDownLatch(1);
+        enqueue(new Chunk(System.out, "", written));
+        Try.run(() -> written.await(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Runs before the last of the output is written when the process exits, for anything that still has output to queue
+     */
+    public static void onClose(Runnable runnable) {
+        closeHooks.add(runnable);
+        // The hooks run from the writer's shutdown hook, so they have to run even if nothing else was written
+        lazyWriter.get();
+    }
+
+    private static void enqueue(Chunk chunk) {
+        lazyWriter.get();
+        queue.add(chunk);
+    }
+
+    private static Thread startWriter() {
+        Thread writer = new Thread(Output::writeLoop, "superfluid-output");
+        writer.setDaemon(true);
+        writer.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            closeHooks.forEach(runnable -> Try.run(runnable::run));
+            queue.add(CLOSE);
+            Try.run(() -> writer.join(TimeUnit.SECONDS.toMillis(CLOSE_TIMEOUT_SECONDS)));
+        }));
+
+        return writer;
+    }
+
+    private static void writeLoop() {
+        java.util.List<Chunk> batch = new ArrayList<>();
+
+        while (true) {
+            Option<Chunk> first = Try.of(queue::take).toOption();
+
+            if (first.isEmpty()) {
+                continue;
+            }
+
+            batch.add(first.get());
+            queue.drainTo(batch, MAX_BATCH - 1);
+
+            boolean closed = write(List.ofAll(batch));
+            batch.clear();
+
+            if (closed) {
+                return;
+            }
+        }
+    }
+
+    // Consecutive chunks for the same stream are joined so each stream gets a single write per batch
+    private static boolean write(List<Chunk> batch) {
+        StringBuilder stringBuilder = new StringBuilder();
+        PrintStream current = null;
+
+        for (Chunk chunk : batch) {
+            if (chunk == CLOSE) {
+                print(current, stringBuilder);
+                return true;
+            }
+
+            if ((current != null) && (chunk.stream != current)) {
+                print(current, stringBuilder);
+            }
+
+            current = chunk.stream;
+            stringBuilder.append(chunk.text);
+
+            if (chunk.written != null) {
+                print(current, stringBuilder);
+                chunk.written.countDown();
+            }
+        }
+
+        print(current, stringBuilder);
+
+        return false;
+    }
+
+    private static void print(PrintStream stream, StringBuilder stringBuilder) {
+        if ((stream == null) || (stringBuilder.length() == 0)) {
+            return;
+        }
+
+        stream.print(stringBuilder);
+        stream.flush();
+        stringBuilder.setLength(0);
+    }
+}
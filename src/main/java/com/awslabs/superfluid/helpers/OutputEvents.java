@@ -0,0 +1,85 @@
+package com.awslabs.superfluid.helpers;
+
+import com.google.gson.JsonObject;
+import io.vavr.collection.List;
+import io.vavr.control.Option;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.SdkField;
+import software.amazon.awssdk.core.SdkPojo;
+import software.amazon.awssdk.core.SdkRequest;
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttribute;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+import software.amazon.awssdk.core.interceptor.SdkExecutionAttribute;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Emits one event per AWS call (after any retries) when the output format is JSON Lines, e.g.
+ * <pre>
+ * {"operation":"IoT:DeleteThing","resource":"my-thing","status":"success","httpStatus":200,"latencyMs":84,"time":"..."}
+ * </pre>
+ * The resource is the ARN the request refers to when it has one, otherwise its name or ID (e.g. the thing name or the
+ * bucket). Failed calls have a status of "failed" and the error.
+ */
+public class OutputEvents implements ExecutionInterceptor {
+    private static final ExecutionAttribute<Long> START_NANOS = new ExecutionAttribute<>("superfluid.output.startNanos");
+    // Request members that identify the resource, in order of preference. IoT targets and principals are ARNs.
+    private static final List<String> RESOURCE_SUFFIXES = List.of("arn", "target", "principal", "name", "id", "bucket");
+
+    @Override
+    public void beforeExecution(Context.BeforeExecution context, ExecutionAttributes executionAttributes) {
+        executionAttributes.putAttribute(START_NANOS, System.nanoTime());
+    }
+
+    @Override
+    public void afterExecution(Context.AfterExecution context, ExecutionAttributes executionAttributes) {
+        JsonObject event = event(context.request(), executionAttributes, "success");
+        event.addProperty("httpStatus", context.httpResponse().statusCode());
+        Output.event(event);
+    }
+
+    @Override
+    public void onExecutionFailure(Context.FailedExecution context, ExecutionAttributes executionAttributes) {
+        JsonObject event = event(context.request(), executionAttributes, "failed");
+
+        if (context.exception() instanceof AwsServiceException) {
+            AwsServiceException awsServiceException = (AwsServiceException) context.exception();
+            event.addProperty("httpStatus", awsServiceException.statusCode());
+            Option.of(awsServiceException.awsErrorDetails())
+                    .forEach(awsErrorDetails -> event.addProperty("errorCode", awsErrorDetails.errorCode()));
+        }
+
+        event.addProperty("error", context.exception().getMessage());
+        Output.event(event);
+    }
+
+    private static JsonObject event(SdkRequest request, ExecutionAttributes executionAttributes, String status) {
+        JsonObject event = new JsonObject();
+        event.addProperty("operation", String.join(":",
+                executionAttributes.getAttribute(SdkExecutionAttribute.SERVICE_NAME),
+                executionAttributes.getAttribute(SdkExecutionAttribute.OPERATION_NAME)));
+        resource(request).forEach(resource -> event.addProperty("resource", resource));
+        event.addProperty("status", status);
+        Option.of(executionAttributes.getAttribute(START_NANOS))
+                .forEach(startNanos -> event.addProperty("latencyMs", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos)));
+
+        return event;
+    }
+
+    // Uses the SDK's own field metadata, no reflection. Also used to annotate trace subsegments.
+    static Option<String> resource(SdkRequest request) {
+        if (!(request instanceof SdkPojo)) {
+            return Option.none();
+        }
+
+        List<SdkField<?>> fields = List.ofAll(((SdkPojo) request).sdkFields());
+
+        return RESOURCE_SUFFIXES
+                .flatMap(suffix -> fields.filter(field -> field.memberName().toLowerCase().endsWith(suffix)))
+                .map(field -> field.getValueOrDefault(request))
+                .find(value -> value instanceof String)
+                .map(String.class::cast);
+    }
+}
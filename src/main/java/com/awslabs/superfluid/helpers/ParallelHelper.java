@@ -0,0 +1,72 @@
+package com.awslabs.superfluid.helpers;
+
+import io.vavr.Function0;
+import io.vavr.Function1;
+import io.vavr.Lazy;
+import io.vavr.collection.List;
+import io.vavr.control.Try;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class ParallelHelper {
+    public static final int DEFAULT_WORKERS = 8;
+    public static final int DEFAULT_IO_THREADS = 16;
+
+    // Shared by everything that fans out blocking SDK calls so the total number of requests in flight stays bounded
+    private static final Lazy<ExecutorService> lazyIoExecutor = Lazy.of(() -> daemonThreadPool(DEFAULT_IO_THREADS, "superfluid-io"));
+
+    /**
+     * A fixed size pool for work that lasts as long as the command, its threads don't keep the JVM alive when idle
+     */
+    public static ExecutorService daemonThreadPool(int threads, String name) {
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static ExecutorService ioExecutor() {
+        return lazyIoExecutor.get();
+    }
+
+    public static <T> CompletableFuture<T> async(Function0<T> supplier) {
+        return CompletableFuture.supplyAsync(supplier, ioExecutor());
+    }
+
+    /**
+     * Starts one asynchronous operation per value as soon as the values are available and combines the results. If the
+     * values themselves failed, or any of the operations fail, the combined result is a failure.
+     */
+    public static <T, R> CompletableFuture<Try<List<R>>> traverse(Try<List<T>> tryValues, Function1<T, CompletableFuture<Try<R>>> function) {
+        if (tryValues.isFailure()) {
+            return CompletableFuture.completedFuture(Try.failure(tryValues.getCause()));
+        }
+
+        List<CompletableFuture<Try<R>>> futures = tryValues.get().map(function);
+
+        return CompletableFuture.allOf(futures.toJavaList().toArray(new CompletableFuture<?>[0]))
+                .thenApply(ignore -> Try.sequence(futures.map(CompletableFuture::join)).map(List::ofAll));
+    }
+
+    public static <T, R> List<R> parallelMap(List<T> values, int workers, Function1<T, R> function) {
+        if ((workers <= 1) || (values.size() <= 1)) {
+            // Nothing to parallelize, don't bother creating any threads
+            return values.map(function);
+        }
+
+        ExecutorService executorService = Executors.newFixedThreadPool(Math.min(workers, values.size()));
+
+        try {
+            List<CompletableFuture<R>> futures = values
+                    .map(value -> CompletableFuture.supplyAsync(() -> function.apply(value), executorService));
+
+            // Results are returned in the same order as the input values
+            return futures.map(CompletableFuture::join);
+        } finally {
+            executorService.shutdown();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.awslabs.superfluid.helpers;
+
+import io.vavr.Function2;
+import io.vavr.Tuple2;
+import io.vavr.control.Option;
+import io.vavr.control.Try;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Lists a prefix based key space (e.g. an S3 bucket) with several listings running at once and merges them into one
+ * stream. Each prefix is listed with a delimiter, its items are emitted right away and every common prefix it returns
+ * becomes a new partition that is listed concurrently. Below the maximum depth partitions are listed without a
+ * delimiter so deep trees don't turn into one request per directory.
+ * <p>
+ * The merged stream is not in key order.
+ */
+public class PrefixPartitionedLister {
+    public static final String DELIMITER = "/";
+
+    // How many pages can be waiting for the consumer per listing thread before the listings pause
+    private static final int PAGES_BUFFERED_PER_THREAD = 2;
+
+    /**
+     * @param lister      lists a prefix, with or without the delimiter, and returns pages of items and common prefixes
+     * @param parallelism the maximum number of listings in flight
+     * @param maxDepth    the number of levels of common prefixes that are split into their own partitions
+     */
+    public static <T> Stream<T> stream(Function2<String, Boolean, Stream<Tuple2<java.util.List<T>, java.util.List<String>>>> lister,
+                                       int parallelism,
+                                       int maxDepth) {
+        ExecutorService executorService = Executors.newFixedThreadPool(parallelism, PrefixPartitionedLister::daemonThread);
+
+        // Success with a page of items, success with none when all partitions are done, or the first failure
+        BlockingQueue<Try<Option<java.util.List<T>>>> pages = new LinkedBlockingQueue<>(parallelism * PAGES_BUFFERED_PER_THREAD);
+        AtomicInteger outstandingPartitions = new AtomicInteger(1);
+
+        executorService.submit(() -> listPartition(lister, "", 0, maxDepth, executorService, pages, outstandingPartitions));
+
+        Spliterator<T> spliterator = new Spliterators.AbstractSpliterator<>(Long.MAX_VALUE, Spliterator.NONNULL) {
+            private Iterator<T> currentPage = Collections.emptyIterator();
+            private boolean done = false;
+
+            @Override
+            public boolean tryAdvance(Consumer<? super T> action) {
+                while (!done && !currentPage.hasNext()) {
+                    Try<Option<java.util.List<T>>> next = Try.of(pages::take)
+                            .flatMap(value -> value);
+
+                    if (next.isFailure()) {
+                        done = true;
+                        executorService.shutdownNow();
+                        throw AwsSdkHelper.unchecked(next.getCause());
+                    }
+
+                    if (next.get().isEmpty()) {
+                        done = true;
+                        executorService.shutdown();
+                    } else {
+                        currentPage = next.get().get().iterator();
+                    }
+                }
+
+                if (done) {
+                    return false;
+                }
+
+                action.accept(currentPage.next());
+
+                return true;
+            }
+        };
+
+        // Stop any listings that are still running if the consumer closes the stream early
+        return StreamSupport.stream(spliterator, false)
+                .onClose(executorService::shutdownNow);
+    }
+
+    private static <T> void listPartition(Function2<String, Boolean, Stream<Tuple2<java.util.List<T>, java.util.List<String>>>> lister,
+                                          String prefix,
+                                          int depth,
+                                          int maxDepth,
+                                          ExecutorService executorService,
+                                          BlockingQueue<Try<Option<java.util.List<T>>>> pages,
+                                          AtomicInteger outstandingPartitions) {
+        try {
+            boolean split = depth < maxDepth;
+
+            lister.apply(prefix, split).forEach(page -> {
+                // Count the new partitions before this one finishes so the total can't reach zero too early
+                page._2.forEach(childPrefix -> {
+                    outstandingPartitions.incrementAndGet();
+                    executorService.submit(() -> listPartition(lister, childPrefix, depth + 1, maxDepth, executorService, pages, outstandingPartitions));
+                });
+
+                if (!page._1.isEmpty()) {
+                    put(pages, Try.success(Option.of(page._1)));
+                }
+            });
+        } catch (Exception e) {
+            put(pages, Try.failure(e));
+        } finally {
+            if (outstandingPartitions.decrementAndGet() == 0) {
+                put(pages, Try.success(Option.none()));
+            }
+        }
+    }
+
+    private static <T> void put(BlockingQueue<T> queue, T value) {
+        try {
+            // Blocks when the consumer falls behind, this is what keeps memory use bounded
+            queue.put(value);
+        } catch (InterruptedException e) {
+            // The consumer went away, nothing else to do
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Thread daemonThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "superfluid-lister");
+        thread.setDaemon(true);
+        return thread;
+    }
+}
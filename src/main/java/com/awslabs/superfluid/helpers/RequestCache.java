@@ -0,0 +1,61 @@
+package com.awslabs.superfluid.helpers;
+
+import io.vavr.Function0;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Memoizes the results of read-only calls for the lifetime of the process. Entries are keyed by the request, SDK
+ * request objects implement equals and hashCode over all of their fields, and tagged with the resource they describe so
+ * a successful mutating call on that resource can drop them.
+ * <p>
+ * Concurrent identical requests share a single in-flight call. Failures are never cached.
+ */
+public class RequestCache {
+    private final ConcurrentHashMap<Object, CompletableFuture<?>> values = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Set<Object>> keysByResource = new ConcurrentHashMap<>();
+
+    @SuppressWarnings("unchecked")
+    public <V> CompletableFuture<V> get(String resource, Object key, Function0<CompletableFuture<V>> loader) {
+        CompletableFuture<V> placeholder = new CompletableFuture<>();
+        AtomicReference<CompletableFuture<?>> existing = new AtomicReference<>();
+
+        // The key is tagged and published in one step under the resource's entry, the same one invalidate takes, so an
+        //   invalidation can never miss a key that is already visible to other callers
+        keysByResource.compute(resource, (ignore, keys) -> {
+            Set<Object> resourceKeys = (keys == null) ? ConcurrentHashMap.newKeySet() : keys;
+            resourceKeys.add(key);
+            existing.set(values.putIfAbsent(key, placeholder));
+
+            return resourceKeys;
+        });
+
+        if (existing.get() != null) {
+            // Already cached or in flight, hand out a copy so callers can't complete the shared future
+            return ((CompletableFuture<V>) existing.get()).copy();
+        }
+
+        loader.get().whenComplete((value, throwable) -> {
+            if (throwable != null) {
+                // Let the next caller try again
+                values.remove(key, placeholder);
+                placeholder.completeExceptionally(throwable);
+            } else {
+                placeholder.complete(value);
+            }
+        });
+
+        return placeholder.copy();
+    }
+
+    public void invalidate(String resource) {
+        keysByResource.computeIfPresent(resource, (ignore, keys) -> {
+            keys.forEach(values::remove);
+
+            return null;
+        });
+    }
+}
@@ -0,0 +1,176 @@
+package com.awslabs.superfluid.helpers;
+
+import io.vavr.Function0;
+import io.vavr.Lazy;
+import io.vavr.collection.HashSet;
+import io.vavr.collection.Set;
+import net.jodah.failsafe.ExecutionContext;
+import net.jodah.failsafe.Failsafe;
+import net.jodah.failsafe.RetryPolicy;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.exception.ApiCallAttemptTimeoutException;
+import software.amazon.awssdk.core.exception.RetryableException;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static com.awslabs.superfluid.helpers.AwsSdkHelper.unwrap;
+
+/**
+ * Retries calls that fail with transient errors using exponential backoff with jitter. The SDK clients already retry a
+ * few times within a second or so, this layer sits on top of that and rides out longer blips (e.g. a dropped connection
+ * or a burst of 5xx responses) so a single failure doesn't fail a long run.
+ */
+public class RetryHelper {
+    public static final int DEFAULT_MAX_RETRIES = 4;
+    private static final long INITIAL_DELAY_MS = 250;
+    private static final long MAX_DELAY_MS = 20_000;
+    private static final double JITTER_FACTOR = 0.5;
+    private static final int TOO_MANY_REQUESTS = 429;
+    private static final int SERVER_ERROR = 500;
+
+    // Attempts are started from here and not from the I/O executor, its threads may all be blocked waiting on retries
+    private static final Lazy<ScheduledExecutorService> lazyScheduler = Lazy.of(() -> Executors.newScheduledThreadPool(ParallelHelper.DEFAULT_IO_THREADS, RetryHelper::daemonThread));
+
+    private static volatile int maxRetries = DEFAULT_MAX_RETRIES;
+    // Set while a retry is being sent, the SDK interceptors run on the sending thread so they can tell it from a new call
+    private static final ThreadLocal<Boolean> retrying = ThreadLocal.withInitial(() -> false);
+
+    private static Thread daemonThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "superfluid-retry");
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    public static void setMaxRetries(int maxRetries) {
+        RetryHelper.maxRetries = maxRetries;
+    }
+
+    /**
+     * The default policy, only transient errors are retried
+     */
+    public static <T> RetryPolicy<T> policy() {
+        return policy(HashSet.empty());
+    }
+
+    /**
+     * A policy that also retries the listed AWS error codes. This is for operations that can fail for a short time after
+     * a related change, e.g. deleting a certificate right after its policies were detached.
+     */
+    public static <T> RetryPolicy<T> policy(String... retryableErrorCodes) {
+        return policy(HashSet.of(retryableErrorCodes));
+    }
+
+    private static <T> RetryPolicy<T> policy(Set<String> retryableErrorCodes) {
+        return new RetryPolicy<T>()
+                .handleIf(throwable -> isRetryable(throwable) || hasErrorCode(throwable, retryableErrorCodes))
+                .withBackoff(INITIAL_DELAY_MS, MAX_DELAY_MS, ChronoUnit.MILLIS)
+                .withJitter(JITTER_FACTOR)
+                .withMaxRetries(maxRetries);
+    }
+
+    public static <T> T retry(RetryPolicy<T> retryPolicy, Function0<T> call) {
+        return Failsafe.with(retryPolicy).get(context -> attempt(context, call));
+    }
+
+    public static <T> CompletableFuture<T> retryAsync(RetryPolicy<T> retryPolicy, Function0<CompletableFuture<T>> asyncCall) {
+        return Failsafe.with(retryPolicy)
+                .with(lazyScheduler.get())
+                .getStageAsync(context -> attempt(context, asyncCall));
+    }
+
+    /**
+     * True while an attempt after the first one is being sent from this thread
+     */
+    static boolean isRetry() {
+        return retrying.get();
+    }
+
+    /**
+     * Makes a call as a retry or as a first attempt, for attempts that are sent from another thread than the one
+     * Failsafe started them on (e.g. after waiting for the rate limiter)
+     */
+    static <T> T attempt(boolean retry, Function0<T> call) {
+        retrying.set(retry);
+
+        try {
+            return call.apply();
+        } finally {
+            retrying.remove();
+        }
+    }
+
+    // The context is typed by the result of the call, for async calls that is what the returned future completes with
+    private static <R, T> T attempt(ExecutionContext<R> context, Function0<T> call) {
+        return attempt(!context.isFirstAttempt(), call);
+    }
+
+    /**
+     * Retries a delete. If an earlier attempt went through but its response was lost the retry fails with a not found
+     * error, in that case the resource is gone and the delete is treated as a success.
+     */
+    public static <T> CompletableFuture<T> retryDeleteAsync(RetryPolicy<T> retryPolicy,
+                                                            Function0<CompletableFuture<T>> asyncCall,
+                                                            Class<? extends Throwable> notFoundClass,
+                                                            Function0<T> alreadyDeleted) {
+        return Failsafe.with(retryPolicy)
+                .with(lazyScheduler.get())
+                .getStageAsync(context -> {
+                    if (context.isFirstAttempt()) {
+                        // Not found on the first attempt is a real error, the resource was never there
+                        return attempt(context, asyncCall);
+                    }
+
+                    return attempt(context, asyncCall)
+                            .exceptionally(throwable -> {
+                                if (notFoundClass.isInstance(unwrap(throwable))) {
+                                    return alreadyDeleted.get();
+                                }
+
+                                throw AwsSdkHelper.unchecked(unwrap(throwable));
+                            });
+                });
+    }
+
+    /**
+     * Errors that are safe to retry for any call, throttling, server side errors and I/O failures
+     */
+    public static boolean isRetryable(Throwable throwable) {
+        Throwable cause = unwrap(throwable);
+
+        if (cause instanceof SdkServiceException) {
+            SdkServiceException sdkServiceException = (SdkServiceException) cause;
+
+            return sdkServiceException.isThrottlingException() ||
+                    (sdkServiceException.statusCode() == TOO_MANY_REQUESTS) ||
+                    (sdkServiceException.statusCode() >= SERVER_ERROR);
+        }
+
+        // Client side errors are only retryable when they came from the network, validation errors will never succeed
+        for (Throwable current = cause; current != null; current = current.getCause()) {
+            if ((current instanceof IOException) ||
+                    (current instanceof UncheckedIOException) ||
+                    (current instanceof ApiCallAttemptTimeoutException) ||
+                    (current instanceof RetryableException)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static boolean hasErrorCode(Throwable throwable, Set<String> errorCodes) {
+        Throwable cause = unwrap(throwable);
+
+        if (!(cause instanceof AwsServiceException) || (((AwsServiceException) cause).awsErrorDetails() == null)) {
+            return false;
+        }
+
+        return errorCodes.contains(((AwsServiceException) cause).awsErrorDetails().errorCode());
+    }
+}
@@ -1,36 +1,247 @@
 package com.awslabs.superfluid.helpers;
 
 
-import com.awslabs.superfluid.visual.Spinner;
+import com.awslabs.superfluid.visual.ProgressRenderer;
+import io.vavr.Tuple;
+import io.vavr.Tuple2;
+import io.vavr.collection.Iterator;
 import io.vavr.collection.List;
+import io.vavr.control.Option;
 import io.vavr.control.Try;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.async.SdkPublisher;
 import software.amazon.awssdk.services.s3.model.*;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static com.awslabs.superfluid.helpers.AwsSdkHelper.*;
+import static com.awslabs.superfluid.helpers.Shared.s3AsyncClient;
 import static com.awslabs.superfluid.helpers.Shared.s3Client;
+import static com.awslabs.superfluid.visual.ProgressRenderer.renderer;
 import static java.text.MessageFormat.format;
 
 public class S3Helper {
-    private static final Spinner SPINNER = Spinner.Standard();
-
     private static final int MAX_OBJECTS_TO_DELETE_AT_ONCE = 1000;
+    private static final int MAX_CONCURRENT_DELETE_REQUESTS = 8;
+    private static final int MAX_DELETE_ATTEMPTS = 3;
+    private static final Duration DELETE_RETRY_DELAY = Duration.ofMillis(500);
+    private static final int MAX_ERRORS_TO_KEEP = 100;
+    public static final int DEFAULT_LISTING_PARALLELISM = 4;
+    // Greengrass artifacts are stored as artifacts/<component>/<version>/<file> so three levels covers the interesting splits
+    private static final int MAX_PARTITION_DEPTH = 3;
+
+    // Counters shared by all of the in-flight delete requests of a single purge
+    private static class PurgeProgress {
+        private final AtomicLong deleted = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final ConcurrentLinkedQueue<String> errors = new ConcurrentLinkedQueue<>();
+        private final ProgressRenderer.Task task;
+        private final LongConsumer onDeleted;
+
+        private PurgeProgress(ProgressRenderer.Task task, LongConsumer onDeleted) {
+            this.task = task;
+            this.onDeleted = onDeleted;
+        }
+
+        private void deleted(long count) {
+            task.add(count);
+            onDeleted.accept(deleted.addAndGet(count));
+        }
+
+        private void error(String message) {
+            if (errors.size() < MAX_ERRORS_TO_KEEP) {
+                errors.add(message);
+            }
+        }
+
+        private S3PurgeResult toResult(Try<Void> tryListing) {
+            return ImmutableS3PurgeResult.builder()
+                    .deleted(deleted.get())
+                    .failed(failed.get())
+                    .errors(List.ofAll(errors))
+                    .tryListing(tryListing)
+                    .build();
+        }
+    }
+
+    private static String bucketResource(String bucketName) {
+        return "s3:bucket:" + bucketName;
+    }
 
     public static Try<Stream<S3Object>> streamObjectsInBucket(String bucketName) {
         ListObjectsV2Request listObjectsV2Request = ListObjectsV2Request.builder()
                 .bucket(bucketName)
                 .build();
 
-        return resultStream(() -> s3Client().listObjectsV2Paginator(listObjectsV2Request), ListObjectsV2Response::contents);
+        return resumableStream((Option<String> token) -> s3Client().listObjectsV2(listObjectsV2Request.toBuilder().continuationToken(token.getOrNull()).build()),
+                response -> Option.of(response.nextContinuationToken()),
+                ListObjectsV2Response::contents);
+    }
+
+    /**
+     * Lists the bucket with up to the requested number of prefix partitions being listed at once. Objects are not
+     * returned in key order when the parallelism is more than one.
+     */
+    public static Try<Stream<S3Object>> streamObjectsInBucket(String bucketName, int parallelism) {
+        if (parallelism <= 1) {
+            return streamObjectsInBucket(bucketName);
+        }
+
+        return Try.of(() -> PrefixPartitionedLister.stream((prefix, split) -> {
+            ListObjectsV2Request listObjectsV2Request = ListObjectsV2Request.builder()
+                    .bucket(bucketName)
+                    .prefix(prefix.isEmpty() ? null : prefix)
+                    .delimiter(split ? PrefixPartitionedLister.DELIMITER : null)
+                    .build();
+
+            return resumablePages((Option<String> token) -> s3Client().listObjectsV2(listObjectsV2Request.toBuilder().continuationToken(token.getOrNull()).build()),
+                            response -> Option.of(response.nextContinuationToken()))
+                    .map(page -> Tuple.of(page.contents(), commonPrefixes(page.commonPrefixes())));
+        }, parallelism, MAX_PARTITION_DEPTH));
+    }
+
+    private static java.util.List<String> commonPrefixes(java.util.List<CommonPrefix> commonPrefixes) {
+        return commonPrefixes.stream()
+                .map(CommonPrefix::prefix)
+                .collect(Collectors.toList());
+    }
+
+    public static Try<Boolean> isVersioningEnabled(String bucketName) {
+        GetBucketVersioningRequest getBucketVersioningRequest = GetBucketVersioningRequest.builder()
+                .bucket(bucketName)
+                .build();
+
+        // Suspended buckets still keep the versions that were created while versioning was enabled
+        return result(() -> s3Client().getBucketVersioning(getBucketVersioningRequest),
+                response -> response.status() != null);
+    }
+
+    /**
+     * Lists every version and delete marker in the bucket as identifiers that can be passed to DeleteObjects
+     */
+    public static Try<Stream<ObjectIdentifier>> streamObjectVersionsInBucket(String bucketName, int parallelism) {
+        return Try.of(() -> PrefixPartitionedLister.stream((prefix, split) -> {
+            ListObjectVersionsRequest listObjectVersionsRequest = ListObjectVersionsRequest.builder()
+                    .bucket(bucketName)
+                    .prefix(prefix.isEmpty() ? null : prefix)
+                    .delimiter(split ? PrefixPartitionedLister.DELIMITER : null)
+                    .build();
+
+            return resumablePages(token -> s3Client().listObjectVersions(versionsPage(listObjectVersionsRequest, token)), S3Helper::nextVersionsPage)
+                    .map(page -> Tuple.of(versionIdentifiers(page), commonPrefixes(page.commonPrefixes())));
+        }, Math.max(parallelism, 1), parallelism <= 1 ? 0 : MAX_PARTITION_DEPTH));
+    }
+
+    private static ListObjectVersionsRequest versionsPage(ListObjectVersionsRequest listObjectVersionsRequest, Option<Tuple2<String, String>> token) {
+        return listObjectVersionsRequest.toBuilder()
+                .keyMarker(token.map(Tuple2::_1).getOrNull())
+                .versionIdMarker(token.map(Tuple2::_2).getOrNull())
+                .build();
+    }
+
+    // Version listings are continued with a key marker and a version ID marker
+    private static Option<Tuple2<String, String>> nextVersionsPage(ListObjectVersionsResponse response) {
+        if (!Boolean.TRUE.equals(response.isTruncated())) {
+            return Option.none();
+        }
+
+        return Option.of(Tuple.of(response.nextKeyMarker(), response.nextVersionIdMarker()));
+    }
+
+    private static java.util.List<ObjectIdentifier> versionIdentifiers(ListObjectVersionsResponse response) {
+        Stream<ObjectIdentifier> versions = response.versions().stream()
+                .map(version -> objectIdentifier(version.key(), version.versionId()));
+        Stream<ObjectIdentifier> deleteMarkers = response.deleteMarkers().stream()
+                .map(deleteMarker -> objectIdentifier(deleteMarker.key(), deleteMarker.versionId()));
+
+        return Stream.concat(versions, deleteMarkers)
+                .collect(Collectors.toList());
+    }
+
+    private static ObjectIdentifier objectIdentifier(String key, String versionId) {
+        return ObjectIdentifier.builder()
+                .key(key)
+                .versionId(versionId)
+                .build();
+    }
+
+    /**
+     * Lists everything that has to be deleted before the bucket can be deleted. That is every version and delete marker
+     * when the bucket has versioning enabled, otherwise just the current objects.
+     */
+    public static Try<Stream<ObjectIdentifier>> streamObjectsToPurge(String bucketName, int listingParallelism) {
+        return isVersioningEnabled(bucketName)
+                .flatMap(versioned -> versioned ?
+                        streamObjectVersionsInBucket(bucketName, listingParallelism) :
+                        streamObjectsInBucket(bucketName, listingParallelism).map(stream -> stream.map(s3Object -> objectIdentifier(s3Object.key(), null))));
+    }
+
+    public static SdkPublisher<S3Object> publishObjectsInBucket(String bucketName) {
+        ListObjectsV2Request listObjectsV2Request = ListObjectsV2Request.builder()
+                .bucket(bucketName)
+                .build();
+
+        return resultPublisher(() -> s3AsyncClient().listObjectsV2Paginator(listObjectsV2Request), ListObjectsV2Response::contents);
+    }
+
+    public static CompletableFuture<List<S3Object>> listObjectsInBucketAsync(String bucketName) {
+        return resultListAsync(() -> publishObjectsInBucket(bucketName));
     }
 
     public static Try<List<S3Object>> listObjectsInBucket(String bucketName) {
-        return resultListWithSpinner(() -> streamObjectsInBucket(bucketName), "objects in the S3 bucket " + bucketName, LIST);
+        return awaitListWithSpinner(() -> listObjectsInBucketAsync(bucketName), "objects in the S3 bucket " + bucketName, LIST);
+    }
+
+    public static Try<Long> countObjectsInBucket(String bucketName) {
+        return countObjectsInBucket(bucketName, 1);
+    }
+
+    public static Try<Long> countObjectsInBucket(String bucketName, int listingParallelism) {
+        ProgressRenderer.Task task = renderer().start(format("Counting the objects in the S3 bucket {0}", bucketName), "objects");
+
+        // Only the count is kept so this works in constant memory no matter how large the bucket is. For versioned
+        //   buckets this counts every version and delete marker since they all have to be deleted.
+        return indexed(bucketResource(bucketName), "object-count",
+                count -> List.of(String.valueOf(count)), values -> Long.valueOf(values.head()),
+                () -> streamObjectsToPurge(bucketName, listingParallelism).map(stream -> stream.peek(ignore -> task.add(1)).count()))
+                .onFailure(e -> task.fail(format("Failed to count the objects in the S3 bucket {0} [{1}]", bucketName, e.getMessage())))
+                .onSuccess(count -> task.success(format("Counted {0} object(s) in the S3 bucket {1}", count, bucketName)));
+    }
+
+    public static CompletableFuture<DeleteObjectsResponse> deleteObjectsAsync(String bucketName, List<ObjectIdentifier> objectIdentifiers) {
+        return deleteObjectsAsync(bucketName, objectIdentifiers, false);
+    }
+
+    public static CompletableFuture<DeleteObjectsResponse> deleteObjectsAsync(String bucketName, List<ObjectIdentifier> objectIdentifiers, boolean quiet) {
+        // Package them in the delete structure for the request, in quiet mode only the errors are returned
+        Delete objectsDelete = Delete.builder()
+                .objects(objectIdentifiers.asJava())
+                .quiet(quiet)
+                .build();
+
+        // Create the delete request
+        DeleteObjectsRequest deleteObjectsRequest = DeleteObjectsRequest.builder()
+                .bucket(bucketName)
+                .delete(objectsDelete)
+                .build();
+
+        return resultAsync(deleteObjectsRequest, request -> s3AsyncClient().deleteObjects(request));
     }
 
     public static List<Try<DeleteObjectsResponse>> deleteObjectsFromBucket(String bucketName, List<S3Object> s3Objects) {
-        SPINNER.start(format("Deleting {0} object(s) from the S3 bucket {1}", s3Objects.size(), bucketName));
+        ProgressRenderer.Task task = renderer().start(format("Deleting {0} object(s) from the S3 bucket {1}", s3Objects.size(), bucketName), "objects");
 
         List<Try<DeleteObjectsResponse>> results = List.empty();
 
@@ -45,35 +256,242 @@ public class S3Helper {
             // Remove them from the existing list
             tempS3Objects = tempS3Objects.drop(MAX_OBJECTS_TO_DELETE_AT_ONCE);
 
-            // Package them in the delete structure for the request
-            Delete objectsDelete = Delete.builder()
-                    .objects(objectIdentifiers.asJava())
-                    .build();
-
-            // Create the delete request
-            DeleteObjectsRequest deleteObjectsRequest = DeleteObjectsRequest.builder()
-                    .bucket(bucketName)
-                    .delete(objectsDelete)
-                    .build();
-
-            results = results.append(Try.of(() -> s3Client().deleteObjects(deleteObjectsRequest)));
+            results = results.append(Try.of(() -> join(deleteObjectsAsync(bucketName, objectIdentifiers)))
+                    .andThen(ignore -> task.add(objectIdentifiers.size())));
         }
 
         if (results.filter(Try::isFailure).isEmpty()) {
-            SPINNER.success(format("Deleted {0} object(s) from the S3 bucket {1}", s3Objects.size(), bucketName));
+            task.success(format("Deleted {0} object(s) from the S3 bucket {1}", s3Objects.size(), bucketName));
         } else {
-            SPINNER.fail(format("Failed to delete some of the {0} object(s) from the S3 bucket {1}", s3Objects.size(), bucketName));
+            task.fail(format("Failed to delete some of the {0} object(s) from the S3 bucket {1}", s3Objects.size(), bucketName));
         }
 
         return results;
     }
 
+    /**
+     * Deletes every object in a bucket while it is still being listed. Each listed page is deleted in batches with
+     * several delete requests in flight at once, and the listing pauses when too many requests are outstanding so
+     * memory use stays constant no matter how many objects there are. Keys that fail individually are retried.
+     * <p>
+     * Buckets with versioning enabled have all of their versions and delete markers deleted instead so that the bucket
+     * can be deleted afterwards.
+     */
+    public static S3PurgeResult purgeBucket(String bucketName) {
+        return purgeBucket(bucketName, 1);
+    }
+
+    public static S3PurgeResult purgeBucket(String bucketName, int listingParallelism) {
+        return purgeBucket(bucketName, listingParallelism, deleted -> {
+        });
+    }
+
+    /**
+     * Same as above, onDeleted is called with the total number of objects deleted so far after every batch
+     */
+    public static S3PurgeResult purgeBucket(String bucketName, int listingParallelism, LongConsumer onDeleted) {
+        ProgressRenderer.Task task = renderer().start(format("Deleting the objects in the S3 bucket {0}", bucketName), "objects");
+
+        PurgeProgress progress = new PurgeProgress(task, onDeleted);
+        Semaphore requestPermits = new Semaphore(MAX_CONCURRENT_DELETE_REQUESTS);
+        Phaser outstandingRequests = new Phaser(1);
+
+        // The listing only fetches more pages when they are needed so listing and deleting overlap
+        Try<Void> tryListing = streamObjectsToPurge(bucketName, listingParallelism)
+                .map(stream -> Iterator.ofAll(stream.iterator()).grouped(MAX_OBJECTS_TO_DELETE_AT_ONCE).map(List::ofAll))
+                .andThen(batches -> batches.forEach(objectIdentifiers -> {
+                    requestPermits.acquireUninterruptibly();
+                    outstandingRequests.register();
+
+                    deleteObjectIdentifiersAsync(bucketName, objectIdentifiers, 1, progress)
+                            .whenComplete((ignore, throwable) -> {
+                                requestPermits.release();
+                                outstandingRequests.arriveAndDeregister();
+                            });
+                }))
+                .map(ignore -> null);
+
+        // Wait for the requests that are still in flight
+        outstandingRequests.arriveAndAwaitAdvance();
+
+        S3PurgeResult result = progress.toResult(tryListing);
+
+        // Some objects may be gone even if the purge failed part way
+        invalidate(bucketResource(bucketName));
+
+        if (result.isSuccess()) {
+            task.success(format("Deleted {0} object(s) from the S3 bucket {1}", result.deleted(), bucketName));
+        } else if (tryListing.isFailure()) {
+            task.fail(format("Deleted {0} object(s) from the S3 bucket {1} before listing it failed [{2}]", result.deleted(), bucketName, tryListing.getCause().getMessage()));
+        } else {
+            task.fail(format("Deleted {0} object(s) from the S3 bucket {1}, failed to delete {2} object(s)", result.deleted(), bucketName, result.failed()));
+        }
+
+        return result;
+    }
+
+    private static CompletableFuture<Void> deleteObjectIdentifiersAsync(String bucketName, List<ObjectIdentifier> objectIdentifiers, int attempt, PurgeProgress progress) {
+        return deleteObjectsAsync(bucketName, objectIdentifiers, true)
+                .thenApply(response -> List.ofAll(response.errors()))
+                // Find the keys (and versions) that were not deleted along with the reason
+                .handle((errors, throwable) -> {
+                    if (throwable == null) {
+                        progress.deleted(objectIdentifiers.size() - errors.size());
+                        return errors.map(error -> Tuple.of(objectIdentifier(error.key(), error.versionId()), format("{0} [{1}]", error.code(), error.message())));
+                    }
+
+                    // The whole request failed so every key in it failed
+                    String message = unwrap(throwable).getMessage();
+                    return objectIdentifiers.map(objectIdentifier -> Tuple.of(objectIdentifier, message));
+                })
+                .thenCompose(failures -> {
+                    if (failures.isEmpty()) {
+                        return CompletableFuture.completedFuture(null);
+                    }
+
+                    if (attempt < MAX_DELETE_ATTEMPTS) {
+                        // Re-queue just the keys that failed after backing off a little
+                        Executor delayedExecutor = CompletableFuture.delayedExecutor(DELETE_RETRY_DELAY.toMillis() * attempt, TimeUnit.MILLISECONDS);
+
+                        return CompletableFuture.runAsync(() -> {
+                        }, delayedExecutor).thenCompose(ignore -> deleteObjectIdentifiersAsync(bucketName, failures.map(Tuple2::_1), attempt + 1, progress));
+                    }
+
+                    progress.failed.addAndGet(failures.size());
+                    failures.forEach(failure -> progress.error(format("{0}: {1}", describe(failure._1), failure._2)));
+
+                    return CompletableFuture.completedFuture(null);
+                });
+    }
+
+    private static String describe(ObjectIdentifier objectIdentifier) {
+        if (objectIdentifier.versionId() == null) {
+            return objectIdentifier.key();
+        }
+
+        return format("{0} (version {1})", objectIdentifier.key(), objectIdentifier.versionId());
+    }
+
+    public static CompletableFuture<DeleteBucketResponse> deleteBucketAsync(String bucketName) {
+        DeleteBucketRequest deleteBucketRequest = DeleteBucketRequest.builder()
+                .bucket(bucketName)
+                .build();
+
+        // S3 can report the bucket as not empty for a moment after the last objects were deleted
+        return invalidatingAsync(() -> deleteAsync(deleteBucketRequest, request -> s3AsyncClient().deleteBucket(request),
+                        NoSuchBucketException.class, () -> DeleteBucketResponse.builder().build(), "BucketNotEmpty"),
+                bucketResource(bucketName));
+    }
+
     public static Try<DeleteBucketResponse> deleteBucket(String bucketName) {
-        SPINNER.start(format("Deleting bucket {0}", bucketName));
+        ProgressRenderer.Task task = renderer().start(format("Deleting bucket {0}", bucketName));
+
+        return Try.of(() -> join(deleteBucketAsync(bucketName)))
+                .onFailure(e -> task.fail(format("Failed to delete the S3 bucket {0} {1}", bucketName, e.getMessage())))
+                .onSuccess(list -> task.success(format("Deleted the S3 bucket {0}", bucketName)));
+
+    }
+
+    /**
+     * Uploads a file in a single request, files larger than ETags.MULTIPART_THRESHOLD should be uploaded in parts
+     */
+    public static CompletableFuture<PutObjectResponse> putFileAsync(String bucketName, String key, Path file) {
+        PutObjectRequest putObjectRequest = PutObjectRequest.builder()
+                .bucket(bucketName)
+                .key(key)
+                .build();
+
+        // The request body is created again for every attempt so a retry starts from the beginning of the file
+        return invalidatingAsync(() -> resultAsync(putObjectRequest, request -> s3AsyncClient().putObject(request, AsyncRequestBody.fromFile(file))),
+                bucketResource(bucketName));
+    }
+
+    /**
+     * Uploads a file in parts of ETags.PART_SIZE with several parts in flight at once. A permit is taken from
+     * requestPermits for every part before it is sent, so callers can share one semaphore to bound the number of
+     * requests (and part-sized buffers) in flight across all of their uploads. onUploaded is called with the size of
+     * each part once it has been uploaded. If any part fails the upload is aborted so the parts don't linger in the bucket.
+     */
+    public static Try<CompleteMultipartUploadResponse> uploadFileInParts(String bucketName, String key, Path file, long size,
+                                                                         Semaphore requestPermits, LongConsumer onUploaded) {
+        CreateMultipartUploadRequest createMultipartUploadRequest = CreateMultipartUploadRequest.builder()
+                .bucket(bucketName)
+                .key(key)
+                .build();
+
+        return Try.of(() -> join(resultAsync(createMultipartUploadRequest, request -> s3AsyncClient().createMultipartUpload(request))).uploadId())
+                .flatMap(uploadId -> Try.of(() -> uploadParts(bucketName, key, file, size, uploadId, requestPermits, onUploaded))
+                        .flatMap(completedParts -> Try.of(() -> join(completeMultipartUploadAsync(bucketName, key, uploadId, completedParts))))
+                        .onFailure(e -> Try.of(() -> join(abortMultipartUploadAsync(bucketName, key, uploadId)))));
+    }
+
+    private static List<CompletedPart> uploadParts(String bucketName, String key, Path file, long size, String uploadId,
+                                                   Semaphore requestPermits, LongConsumer onUploaded) throws IOException {
+        int parts = ETags.partCount(size, ETags.PART_SIZE);
+        java.util.List<CompletableFuture<CompletedPart>> futures = new java.util.ArrayList<>();
+        AtomicBoolean failed = new AtomicBoolean();
+
+        try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // No point sending the rest of the parts once one of them has failed, the upload is aborted anyway
+            for (int part = 0; (part < parts) && !failed.get(); part++) {
+                long position = part * ETags.PART_SIZE;
+                long length = Math.min(ETags.PART_SIZE, size - position);
+                // Part numbers start at 1
+                int partNumber = part + 1;
+                // Mapped instead of read so nothing is copied until the SDK copies the part into its request body
+                MappedByteBuffer mappedByteBuffer = fileChannel.map(FileChannel.MapMode.READ_ONLY, position, length);
+
+                // Waiting here keeps us from mapping and sending parts faster than they can be uploaded
+                requestPermits.acquireUninterruptibly();
 
-        return Try.of(() -> s3Client().deleteBucket(DeleteBucketRequest.builder().bucket(bucketName).build()))
-                .onFailure(e -> SPINNER.fail(format("Failed to delete the S3 bucket {0} {1}", bucketName, e.getMessage())))
-                .onSuccess(list -> SPINNER.success(format("Deleted the S3 bucket {0}", bucketName)));
+                futures.add(uploadPartAsync(bucketName, key, uploadId, partNumber, mappedByteBuffer)
+                        .whenComplete((completedPart, throwable) -> {
+                            requestPermits.release();
+
+                            if (throwable == null) {
+                                onUploaded.accept(length);
+                            } else {
+                                failed.set(true);
+                            }
+                        }));
+            }
+        }
+
+        return List.ofAll(futures).map(AwsSdkHelper::join);
+    }
+
+    private static CompletableFuture<CompletedPart> uploadPartAsync(String bucketName, String key, String uploadId, int partNumber, ByteBuffer byteBuffer) {
+        UploadPartRequest uploadPartRequest = UploadPartRequest.builder()
+                .bucket(bucketName)
+                .key(key)
+                .uploadId(uploadId)
+                .partNumber(partNumber)
+                .build();
+
+        // Each attempt reads the part from the start of a fresh view of the mapping
+        return resultAsync(uploadPartRequest, request -> s3AsyncClient().uploadPart(request, AsyncRequestBody.fromByteBuffer(byteBuffer.duplicate())),
+                response -> CompletedPart.builder().partNumber(partNumber).eTag(response.eTag()).build());
+    }
+
+    private static CompletableFuture<CompleteMultipartUploadResponse> completeMultipartUploadAsync(String bucketName, String key, String uploadId, List<CompletedPart> completedParts) {
+        CompleteMultipartUploadRequest completeMultipartUploadRequest = CompleteMultipartUploadRequest.builder()
+                .bucket(bucketName)
+                .key(key)
+                .uploadId(uploadId)
+                .multipartUpload(CompletedMultipartUpload.builder().parts(completedParts.asJava()).build())
+                .build();
+
+        return invalidatingAsync(() -> resultAsync(completeMultipartUploadRequest, request -> s3AsyncClient().completeMultipartUpload(request)),
+                bucketResource(bucketName));
+    }
+
+    private static CompletableFuture<AbortMultipartUploadResponse> abortMultipartUploadAsync(String bucketName, String key, String uploadId) {
+        AbortMultipartUploadRequest abortMultipartUploadRequest = AbortMultipartUploadRequest.builder()
+                .bucket(bucketName)
+                .key(key)
+                .uploadId(uploadId)
+                .build();
 
+        return resultAsync(abortMultipartUploadRequest, request -> s3AsyncClient().abortMultipartUpload(request));
     }
 }
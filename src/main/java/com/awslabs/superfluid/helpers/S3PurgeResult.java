@@ -0,0 +1,22 @@
+package com.awslabs.superfluid.helpers;
+
+import io.vavr.collection.List;
+import io.vavr.control.Try;
+import org.immutables.value.Value;
+
+@Value.Immutable
+public abstract class S3PurgeResult {
+    public abstract long deleted();
+
+    public abstract long failed();
+
+    // Only the first few error messages are kept so a bucket full of failures can't use up the heap
+    public abstract List<String> errors();
+
+    // A failure when the listing stopped part way, the objects after that point were never tried
+    public abstract Try<Void> tryListing();
+
+    public boolean isSuccess() {
+        return tryListing().isSuccess() && (failed() == 0) && errors().isEmpty();
+    }
+}
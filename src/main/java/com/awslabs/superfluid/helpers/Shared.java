@@ -1,36 +1,204 @@
 package com.awslabs.superfluid.helpers;
 
+import com.awslabs.superfluid.visual.ProgressRenderer;
 import io.vavr.Lazy;
+import io.vavr.control.Option;
+import io.vavr.control.Try;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.helpers.MessageFormatter;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.awscore.client.builder.AwsClientBuilder;
+import software.amazon.awssdk.core.SdkSystemSetting;
+import software.amazon.awssdk.core.client.builder.SdkAsyncClientBuilder;
+import software.amazon.awssdk.core.client.builder.SdkSyncClientBuilder;
+import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
+import software.amazon.awssdk.http.SdkHttpClient;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.http.async.SdkAsyncHttpClient;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.profiles.ProfileFileLocation;
+import software.amazon.awssdk.profiles.ProfileFileSystemSetting;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.regions.providers.DefaultAwsRegionProviderChain;
 import software.amazon.awssdk.services.ec2.Ec2Client;
+import software.amazon.awssdk.services.greengrassv2.GreengrassV2AsyncClient;
 import software.amazon.awssdk.services.greengrassv2.GreengrassV2Client;
+import software.amazon.awssdk.services.iam.IamAsyncClient;
 import software.amazon.awssdk.services.iam.IamClient;
+import software.amazon.awssdk.services.iot.IotAsyncClient;
 import software.amazon.awssdk.services.iot.IotClient;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.sts.StsClient;
 import software.amazon.awssdk.services.sts.model.GetCallerIdentityRequest;
+import software.amazon.awssdk.services.xray.XRayClient;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
 
 public class Shared {
+    public static final int DEFAULT_MAX_CONNECTIONS = 64;
+    public static final String CACHE_DIRECTORY_ENVIRONMENT_VARIABLE = "SUPERFLUID_CACHE_DIR";
+    private static final String DEFAULT_PROFILE_NAME = "default";
+    // Idle connections are kept around this long so concurrent calls to the same endpoint reuse them
+    private static final Duration CONNECTION_MAX_IDLE_TIME = Duration.ofSeconds(60);
+
     private static final Lazy<Logger> lazyLog = Lazy.of(() -> LoggerFactory.getLogger(Shared.class));
-    private static final Lazy<Region> lazyRegion = Lazy.of(() -> DefaultAwsRegionProviderChain.builder().build().getRegion());
-    private static final Lazy<Ec2Client> lazyEc2Client = Lazy.of(Ec2Client::create);
-    private static final Lazy<IamClient> lazyIamClient = Lazy.of(() -> IamClient.builder().region(Region.AWS_GLOBAL).build());
-    private static final Lazy<IotClient> lazyIotClient = Lazy.of(IotClient::create);
-    private static final Lazy<GreengrassV2Client> lazyGreengrassV2Client = Lazy.of(GreengrassV2Client::create);
-    private static final Lazy<StsClient> lazyStsClient = Lazy.of(StsClient::create);
-    private static final Lazy<S3Client> lazyS3Client = Lazy.of(() -> S3Client.builder().build());
-    public static final software.amazon.awssdk.services.s3.S3Client s3Client = software.amazon.awssdk.services.s3.S3Client.builder().build();
+    private static final Lazy<Region> lazyRegion = Lazy.of(Shared::resolveRegion);
+    private static final AdaptiveRateLimiter rateLimiter = new AdaptiveRateLimiter();
+    private static final AdaptiveRateLimiter asyncRateLimiter = rateLimiter.forAsyncClients();
+    private static final Lazy<OutputEvents> lazyOutputEvents = Lazy.of(OutputEvents::new);
+    private static volatile int maxConnections = DEFAULT_MAX_CONNECTIONS;
+
+    // Every client shares one connection pool per HTTP client type and one credentials provider. Nothing is created
+    //   until the first command that needs it runs.
+    private static final Lazy<SdkHttpClient> lazyHttpClient = Lazy.of(() -> ApacheHttpClient.builder()
+            .maxConnections(maxConnections)
+            .tcpKeepAlive(true)
+            .connectionMaxIdleTime(CONNECTION_MAX_IDLE_TIME)
+            .build());
+    private static final Lazy<SdkAsyncHttpClient> lazyAsyncHttpClient = Lazy.of(() -> NettyNioAsyncHttpClient.builder()
+            .maxConcurrency(maxConnections)
+            .tcpKeepAlive(true)
+            .connectionMaxIdleTime(CONNECTION_MAX_IDLE_TIME)
+            .build());
+    // Refreshes expiring credentials (e.g. SSO or assumed roles) in the background instead of on a request thread
+    private static final Lazy<AwsCredentialsProvider> lazyCredentialsProvider = Lazy.of(() -> DefaultCredentialsProvider.builder()
+            .asyncCredentialUpdateEnabled(true)
+            .build());
+
+    private static Region resolveRegion() {
+        Region region = SdkSystemSetting.AWS_REGION.getStringValue()
+                // Set explicitly in the environment, that's as fast as the cache and always up to date
+                .map(Region::of)
+                .orElseGet(() -> Region.of(IdentityCache.get(regionCacheKey(), IdentityCache.DEFAULT_TTL,
+                        () -> DefaultAwsRegionProviderChain.builder().build().getRegion().id())));
+        StartupTimings.mark("region resolved");
+
+        return region;
+    }
+
+    private static String regionCacheKey() {
+        // Editing the config file changes the key so a region change in the profile is picked up right away
+        String configVersion = ProfileFileLocation.configurationFileLocation()
+                .flatMap(path -> Try.of(() -> Files.getLastModifiedTime(path).toMillis()).toJavaOptional())
+                .map(String::valueOf)
+                .orElse("none");
 
-    private static final Lazy<String> lazyAccountId = Lazy.of(() -> stsClient().getCallerIdentity(GetCallerIdentityRequest.builder().build()).account());
+        return String.join(".", "region", profileName(), configVersion);
+    }
+
+    private static String accountIdCacheKey() {
+        String credentialsFingerprint = IdentityCache.fingerprint(lazyCredentialsProvider.get().resolveCredentials().accessKeyId());
+
+        return String.join(".", "account", profileName(), credentialsFingerprint, regionString());
+    }
+
+    private static String profileName() {
+        return ProfileFileSystemSetting.AWS_PROFILE.getStringValue().orElse(DEFAULT_PROFILE_NAME);
+    }
+
+    /**
+     * Where local state that can be thrown away (e.g. the identity cache) is kept
+     */
+    public static Path cacheDirectory() {
+        return Option.of(System.getenv(CACHE_DIRECTORY_ENVIRONMENT_VARIABLE))
+                .map(Paths::get)
+                .getOrElse(() -> Paths.get(System.getProperty("user.home"), ".superfluid", "cache"));
+    }
+
+    private static final Lazy<Ec2Client> lazyEc2Client = Lazy.of(() -> syncClient(Ec2Client.builder()));
+    private static final Lazy<IamClient> lazyIamClient = Lazy.of(() -> syncClient(IamClient.builder(), Region.AWS_GLOBAL));
+    private static final Lazy<IotClient> lazyIotClient = Lazy.of(() -> syncClient(IotClient.builder()));
+    private static final Lazy<GreengrassV2Client> lazyGreengrassV2Client = Lazy.of(() -> syncClient(GreengrassV2Client.builder()));
+    private static final Lazy<StsClient> lazyStsClient = Lazy.of(() -> syncClient(StsClient.builder()));
+    private static final Lazy<S3Client> lazyS3Client = Lazy.of(() -> syncClient(S3Client.builder()));
+    private static final Lazy<IamAsyncClient> lazyIamAsyncClient = Lazy.of(() -> asyncClient(IamAsyncClient.builder(), Region.AWS_GLOBAL));
+    private static final Lazy<IotAsyncClient> lazyIotAsyncClient = Lazy.of(() -> asyncClient(IotAsyncClient.builder()));
+    private static final Lazy<GreengrassV2AsyncClient> lazyGreengrassV2AsyncClient = Lazy.of(() -> asyncClient(GreengrassV2AsyncClient.builder()));
+    private static final Lazy<S3AsyncClient> lazyS3AsyncClient = Lazy.of(() -> asyncClient(S3AsyncClient.builder()));
+    // Not configured like the other clients, sending the traces must not be traced itself
+    private static final Lazy<XRayClient> lazyXRayClient = Lazy.of(() -> XRayClient.builder()
+            .region(region())
+            .httpClient(lazyHttpClient.get())
+            .credentialsProvider(lazyCredentialsProvider.get())
+            .build());
+
+    // The STS client is only created when the account ID isn't cached
+    private static final Lazy<String> lazyAccountId = Lazy.of(() -> IdentityCache.get(accountIdCacheKey(), IdentityCache.DEFAULT_TTL,
+            () -> stsClient().getCallerIdentity(GetCallerIdentityRequest.builder().build()).account()));
 
     public static void setVerbose(boolean[] verbose) {
         throw new RuntimeException("Not implemented");
     }
 
+    /**
+     * Sets the size of the shared connection pools, this only has an effect before the first client is created
+     */
+    public static void setMaxConnections(int maxConnections) {
+        Shared.maxConnections = maxConnections;
+    }
+
+    // Every client uses the cached region so the SDK doesn't look it up again for each client, and so the calls always
+    //   go to the region the bucket names and the local state are based on
+    private static <B extends AwsClientBuilder<B, C> & SdkSyncClientBuilder<B, C>, C> C syncClient(B builder) {
+        return syncClient(builder, region());
+    }
+
+    private static <B extends AwsClientBuilder<B, C> & SdkSyncClientBuilder<B, C>, C> C syncClient(B builder, Region region) {
+        C client = builder.region(region)
+                .httpClient(lazyHttpClient.get())
+                .credentialsProvider(lazyCredentialsProvider.get())
+                .overrideConfiguration(configuration -> configureClient(configuration, rateLimiter))
+                .build();
+        StartupTimings.markOnce("first client created");
+
+        return client;
+    }
+
+    private static <B extends AwsClientBuilder<B, C> & SdkAsyncClientBuilder<B, C>, C> C asyncClient(B builder) {
+        return asyncClient(builder, region());
+    }
+
+    private static <B extends AwsClientBuilder<B, C> & SdkAsyncClientBuilder<B, C>, C> C asyncClient(B builder, Region region) {
+        C client = builder.region(region)
+                .httpClient(lazyAsyncHttpClient.get())
+                .credentialsProvider(lazyCredentialsProvider.get())
+                .overrideConfiguration(configuration -> configureClient(configuration, asyncRateLimiter))
+                .build();
+        StartupTimings.markOnce("first async client created");
+
+        return client;
+    }
+
+    private static void configureClient(ClientOverrideConfiguration.Builder builder, AdaptiveRateLimiter clientRateLimiter) {
+        builder.addExecutionInterceptor(clientRateLimiter);
+
+        if (StartupTimings.enabled()) {
+            builder.addExecutionInterceptor(StartupTimings.interceptor());
+        }
+
+        if (Output.jsonl()) {
+            builder.addExecutionInterceptor(lazyOutputEvents.get());
+        }
+
+        if (Tracing.enabled()) {
+            builder.addExecutionInterceptor(Tracing.interceptor());
+        }
+
+        if (CallStats.enabled()) {
+            builder.addExecutionInterceptor(CallStats.interceptor());
+        }
+    }
+
+    public static AdaptiveRateLimiter rateLimiter() {
+        return rateLimiter;
+    }
+
     public static Logger log() {
         return lazyLog.get();
     }
@@ -71,15 +239,48 @@ public class Shared {
         return lazyGreengrassV2Client.get();
     }
 
+    public static S3AsyncClient s3AsyncClient() {
+        return lazyS3AsyncClient.get();
+    }
+
+    public static XRayClient xRayClient() {
+        return lazyXRayClient.get();
+    }
+
+    public static IamAsyncClient iamAsyncClient() {
+        return lazyIamAsyncClient.get();
+    }
+
+    public static IotAsyncClient iotAsyncClient() {
+        return lazyIotAsyncClient.get();
+    }
+
+    public static GreengrassV2AsyncClient greengrassV2AsyncClient() {
+        return lazyGreengrassV2AsyncClient.get();
+    }
+
+    // Output goes through the progress renderer so it doesn't collide with the progress of running operations
     public static void print(String format, Object... args) {
-        System.out.print(MessageFormatter.arrayFormat(format, args).getMessage());
+        StartupTimings.markOnce("first output");
+        ProgressRenderer.write(format(format, args));
     }
 
     public static void println() {
-        System.out.println();
+        StartupTimings.markOnce("first output");
+        ProgressRenderer.write(System.lineSeparator());
     }
 
     public static void println(String format, Object... args) {
-        System.out.println(MessageFormatter.arrayFormat(format, args).getMessage());
+        StartupTimings.markOnce("first output");
+        ProgressRenderer.write(format(format, args) + System.lineSeparator());
+    }
+
+    private static String format(String format, Object... args) {
+        // Most output is a plain string, skip the placeholder parsing for it
+        if (args.length == 0) {
+            return format;
+        }
+
+        return MessageFormatter.arrayFormat(format, args).getMessage();
     }
 }
@@ -0,0 +1,88 @@
+package com.awslabs.superfluid.helpers;
+
+import io.vavr.Lazy;
+import io.vavr.collection.List;
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static java.text.MessageFormat.format;
+
+/**
+ * Records how long each startup phase takes, measured from the time the process started. Only active when the
+ * SUPERFLUID_STARTUP_TIMINGS environment variable is set, the timings are printed to stderr when the command exits.
+ * This is what benchmark/startup.sh uses to break down the startup time of the JVM and native builds.
+ */
+public class StartupTimings {
+    public static final String ENVIRONMENT_VARIABLE = "SUPERFLUID_STARTUP_TIMINGS";
+    private static final boolean enabled = System.getenv(ENVIRONMENT_VARIABLE) != null;
+    private static final ConcurrentLinkedQueue<Mark> marks = new ConcurrentLinkedQueue<>();
+    private static final Set<String> markedOnce = ConcurrentHashMap.newKeySet();
+
+    private static class Mark {
+        private final String phase;
+        private final Instant time;
+
+        private Mark(String phase, Instant time) {
+            this.phase = phase;
+            this.time = time;
+        }
+    }
+
+    // Marks the first request sent by any client, lazy so the SDK classes aren't loaded when timings are off
+    private static final Lazy<ExecutionInterceptor> lazyFirstRequestInterceptor = Lazy.of(() -> new ExecutionInterceptor() {
+        @Override
+        public void beforeTransmission(Context.BeforeTransmission context, ExecutionAttributes executionAttributes) {
+            markOnce("first API request sent");
+        }
+    });
+
+    public static boolean enabled() {
+        return enabled;
+    }
+
+    public static void mark(String phase) {
+        if (!enabled) {
+            return;
+        }
+
+        marks.add(new Mark(phase, Instant.now()));
+    }
+
+    // For phases that can be hit from several places but only the first time matters
+    public static void markOnce(String phase) {
+        if (!enabled || !markedOnce.add(phase)) {
+            return;
+        }
+
+        mark(phase);
+    }
+
+    public static ExecutionInterceptor interceptor() {
+        return lazyFirstRequestInterceptor.get();
+    }
+
+    public static void report() {
+        if (!enabled) {
+            return;
+        }
+
+        Instant processStart = ProcessHandle.current().info().startInstant().orElse(Instant.now());
+        List<Mark> sortedMarks = List.ofAll(marks).sortBy(mark -> mark.time);
+        List<Instant> previousTimes = sortedMarks.map(mark -> mark.time).prepend(processStart);
+
+        System.err.println("Startup timings (ms since process start, ms since previous phase)");
+
+        sortedMarks.zip(previousTimes)
+                .forEach(tuple -> System.err.println(format("  {0,number,0}\t{1,number,0}\t{2}",
+                        Duration.between(processStart, tuple._1.time).toMillis(),
+                        Duration.between(tuple._2, tuple._1.time).toMillis(),
+                        tuple._1.phase)));
+    }
+}
@@ -0,0 +1,93 @@
+package com.awslabs.superfluid.helpers;
+
+import io.vavr.Function0;
+import io.vavr.Tuple;
+import io.vavr.Tuple2;
+import io.vavr.collection.LinkedHashMap;
+import io.vavr.collection.List;
+import io.vavr.collection.Map;
+import io.vavr.control.Option;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import static java.text.MessageFormat.format;
+
+/**
+ * A set of tasks that each return a list of errors, with explicit ordering edges between them. Every task whose
+ * dependencies have finished is started immediately so the total run time is the critical path through the graph.
+ * <p>
+ * Dependencies only order the tasks. A task that reports errors does not stop its dependents from running, the same
+ * way the sequential cleanup keeps going and reports everything at the end.
+ * <p>
+ * The tasks run on the executor the graph is created with, so many graphs running at once (e.g. one per Greengrass
+ * system) share one bounded set of threads.
+ */
+public class TaskGraph<K> {
+    private final Executor executor;
+    private Map<K, Tuple2<Function0<List<String>>, List<K>>> tasks = LinkedHashMap.empty();
+
+    public TaskGraph(Executor executor) {
+        this.executor = executor;
+    }
+
+    public TaskGraph<K> task(K key, Function0<List<String>> task, List<K> dependencies) {
+        if (tasks.containsKey(key)) {
+            throw new IllegalArgumentException(format("Task {0} was added more than once", key));
+        }
+
+        // Requiring dependencies to be added first means the graph can never contain a cycle
+        Option<K> missingDependency = dependencies.find(dependency -> !tasks.containsKey(dependency));
+
+        if (missingDependency.isDefined()) {
+            throw new IllegalArgumentException(format("Task {0} depends on {1} which has not been added yet", key, missingDependency.get()));
+        }
+
+        tasks = tasks.put(key, Tuple.of(task, dependencies));
+
+        return this;
+    }
+
+    public List<K> keys() {
+        return tasks.keySet().toList();
+    }
+
+    /**
+     * Runs the graph and returns the errors from every task in the order that the tasks were added
+     */
+    public List<String> run() {
+        if (tasks.isEmpty()) {
+            return List.empty();
+        }
+
+        Map<K, CompletableFuture<List<String>>> futures = LinkedHashMap.empty();
+
+        for (Tuple2<K, Tuple2<Function0<List<String>>, List<K>>> entry : tasks) {
+            Function0<List<String>> task = entry._2._1;
+            // Every dependency was added before this task so its future is always there
+            Map<K, CompletableFuture<List<String>>> earlierFutures = futures;
+            CompletableFuture<?>[] dependencies = entry._2._2
+                    .map(dependency -> earlierFutures.get(dependency).get())
+                    .toJavaList()
+                    .toArray(new CompletableFuture<?>[0]);
+
+            CompletableFuture<List<String>> future = CompletableFuture.allOf(dependencies)
+                    .thenApplyAsync(ignore -> runTask(entry._1, task), executor);
+
+            futures = futures.put(entry._1, future);
+        }
+
+        return futures.values()
+                .toList()
+                .flatMap(CompletableFuture::join);
+    }
+
+    private List<String> runTask(K key, Function0<List<String>> task) {
+        try {
+            return task.apply();
+        } catch (Exception e) {
+            // Tasks are expected to report their own errors, this is a last resort so one bad task can't hang the graph
+            return List.of(format("- Task {0} failed unexpectedly", key), format("  - {0}\n", e.getMessage()));
+        }
+    }
+}
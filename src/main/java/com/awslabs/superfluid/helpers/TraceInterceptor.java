@@ -0,0 +1,129 @@
+package com.awslabs.superfluid.helpers;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import io.vavr.control.Option;
+import software.amazon.awssdk.awscore.AwsExecutionAttribute;
+import software.amazon.awssdk.awscore.AwsResponse;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.SdkRequest;
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttribute;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+import software.amazon.awssdk.core.interceptor.SdkExecutionAttribute;
+
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Emits an X-Ray subsegment for every AWS call (including its retries) in the format the X-Ray SDKs use, so the
+ * console shows the service, operation, request ID and HTTP status of each call. Throttled calls are flagged as
+ * throttled, other 4xx responses as errors and 5xx responses as faults.
+ */
+class TraceInterceptor implements ExecutionInterceptor {
+    private static final ExecutionAttribute<Instant> START_TIME = new ExecutionAttribute<>("superfluid.tracing.startTime");
+    // beforeExecution runs on the calling thread, so this is the phase the call was made in
+    private static final ExecutionAttribute<String> PARENT_ID = new ExecutionAttribute<>("superfluid.tracing.parentId");
+    private static final ExecutionAttribute<AtomicInteger> ATTEMPTS = new ExecutionAttribute<>("superfluid.tracing.attempts");
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    @Override
+    public void beforeExecution(Context.BeforeExecution context, ExecutionAttributes executionAttributes) {
+        executionAttributes.putAttribute(START_TIME, Instant.now());
+        executionAttributes.putAttribute(PARENT_ID, Tracing.parentId());
+        executionAttributes.putAttribute(ATTEMPTS, new AtomicInteger());
+    }
+
+    @Override
+    public void beforeTransmission(Context.BeforeTransmission context, ExecutionAttributes executionAttributes) {
+        Option.of(executionAttributes.getAttribute(ATTEMPTS)).forEach(AtomicInteger::incrementAndGet);
+    }
+
+    @Override
+    public void afterExecution(Context.AfterExecution context, ExecutionAttributes executionAttributes) {
+        String requestId = (context.response() instanceof AwsResponse) ?
+                ((AwsResponse) context.response()).responseMetadata().requestId() :
+                null;
+
+        Tracing.emit(subsegment(context.request(), executionAttributes, context.httpResponse().statusCode(), requestId, false));
+    }
+
+    @Override
+    public void onExecutionFailure(Context.FailedExecution context, ExecutionAttributes executionAttributes) {
+        int statusCode = 0;
+        String requestId = null;
+        boolean throttled = false;
+
+        if (context.exception() instanceof AwsServiceException) {
+            AwsServiceException awsServiceException = (AwsServiceException) context.exception();
+            statusCode = awsServiceException.statusCode();
+            requestId = awsServiceException.requestId();
+            // Covers throttling that isn't a 429, e.g. S3's 503 SlowDown
+            throttled = awsServiceException.isThrottlingException();
+        }
+
+        JsonObject document = subsegment(context.request(), executionAttributes, statusCode, requestId, throttled);
+
+        if (statusCode < 400) {
+            // Never got a response (e.g. a connection failure)
+            document.addProperty("fault", true);
+        }
+
+        JsonObject exception = new JsonObject();
+        exception.addProperty("id", Tracing.newId());
+        exception.addProperty("type", context.exception().getClass().getSimpleName());
+        exception.addProperty("message", context.exception().getMessage());
+        JsonArray exceptions = new JsonArray();
+        exceptions.add(exception);
+        JsonObject cause = new JsonObject();
+        cause.add("exceptions", exceptions);
+        document.add("cause", cause);
+
+        Tracing.emit(document);
+    }
+
+    private static JsonObject subsegment(SdkRequest request, ExecutionAttributes executionAttributes, int statusCode, String requestId, boolean throttled) {
+        JsonObject document = Tracing.subsegment(executionAttributes.getAttribute(SdkExecutionAttribute.SERVICE_NAME),
+                Tracing.newId(),
+                Option.of(executionAttributes.getAttribute(PARENT_ID)).getOrElse(Tracing::parentId),
+                Option.of(executionAttributes.getAttribute(START_TIME)).getOrElse(Instant::now),
+                Instant.now());
+        document.addProperty("namespace", "aws");
+
+        JsonObject aws = new JsonObject();
+        aws.addProperty("operation", executionAttributes.getAttribute(SdkExecutionAttribute.OPERATION_NAME));
+        Option.of(executionAttributes.getAttribute(AwsExecutionAttribute.AWS_REGION))
+                .forEach(region -> aws.addProperty("region", region.id()));
+        Option.of(requestId).forEach(value -> aws.addProperty("request_id", value));
+        Option.of(executionAttributes.getAttribute(ATTEMPTS))
+                .map(AtomicInteger::get)
+                .filter(attempts -> attempts > 1)
+                .forEach(attempts -> aws.addProperty("retries", attempts - 1));
+        document.add("aws", aws);
+
+        if (statusCode > 0) {
+            JsonObject response = new JsonObject();
+            response.addProperty("status", statusCode);
+            document.add("http", Tracing.object("response", response));
+        }
+
+        if (throttled || (statusCode == TOO_MANY_REQUESTS)) {
+            document.addProperty("throttle", true);
+            document.addProperty("error", true);
+        } else if (statusCode >= 500) {
+            document.addProperty("fault", true);
+        } else if (statusCode >= 400) {
+            document.addProperty("error", true);
+        }
+
+        // Annotations can be searched in the console, e.g. annotation.resource = "my-thing"
+        OutputEvents.resource(request).forEach(resource -> {
+            JsonObject annotations = new JsonObject();
+            annotations.addProperty("resource", resource);
+            document.add("annotations", annotations);
+        });
+
+        return document;
+    }
+}
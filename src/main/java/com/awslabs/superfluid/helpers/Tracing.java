@@ -0,0 +1,312 @@
+package com.awslabs.superfluid.helpers;
+
+import com.google.gson.JsonObject;
+import io.vavr.Lazy;
+import io.vavr.collection.List;
+import io.vavr.control.Option;
+import io.vavr.control.Try;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+import software.amazon.awssdk.services.xray.model.PutTraceSegmentsRequest;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static java.text.MessageFormat.format;
+
+/**
+ * Traces a run in the X-Ray segment format. The run is one segment that starts when the process starts, every progress
+ * task is a subsegment of it (a phase) and every AWS call is a subsegment of the phase started on the calling thread,
+ * or of the run when there isn't one.
+ * <p>
+ * Subsegments are sent as separate documents as soon as they end, in batches from a background thread, so nothing is
+ * kept in memory for long runs. They go to X-Ray with PutTraceSegments (--xray), to a file with one document per line
+ * for offline analysis (--trace-file), or both.
+ */
+public class Tracing {
+    // The most documents PutTraceSegments accepts in a single request
+    private static final int MAX_BATCH = 50;
+    private static final long FLUSH_INTERVAL_MILLIS = 1000;
+    private static final long CLOSE_TIMEOUT_SECONDS = 10;
+    private static final int MAX_NAME_LENGTH = 200;
+    private static final JsonObject CLOSE = new JsonObject();
+
+    private static final LinkedBlockingQueue<JsonObject> queue = new LinkedBlockingQueue<>();
+    private static final Set<Phase> openPhases = ConcurrentHashMap.newKeySet();
+    private static final ThreadLocal<Phase> currentPhase = new ThreadLocal<>();
+    private static final Lazy<Thread> lazyExporter = Lazy.of(Tracing::startExporter);
+    private static final Lazy<TraceInterceptor> lazyInterceptor = Lazy.of(TraceInterceptor::new);
+    private static final Phase NOT_TRACED = new Phase(null, null);
+
+    private static final Instant startTime = ProcessHandle.current().info().startInstant().orElse(Instant.now());
+    private static final String traceId = newTraceId();
+    private static final String segmentId = newId();
+
+    private static volatile boolean enabled = false;
+    private static volatile boolean xRay = false;
+    private static volatile Path traceFile = null;
+    private static volatile String command = null;
+    // Only touched by the exporter thread
+    private static Writer traceFileWriter = null;
+
+    /**
+     * A phase of the run, ended exactly once when the work it covers succeeds or fails
+     */
+    public static class Phase {
+        private final String name;
+        private final String id;
+        private final Instant startTime = Instant.now();
+        // Restored when this phase ends so nested phases on one thread work
+        private final Phase previous = currentPhase.get();
+        private volatile boolean ended = false;
+
+        private Phase(String name, String id) {
+            this.name = name;
+            this.id = id;
+        }
+
+        public void end(boolean error) {
+            if ((id == null) || ended) {
+                return;
+            }
+
+            ended = true;
+            openPhases.remove(this);
+
+            if (currentPhase.get() == this) {
+                currentPhase.set(previous);
+            }
+
+            JsonObject document = subsegment(sanitizeName(name), id, segmentId, startTime, Instant.now());
+            JsonObject metadata = new JsonObject();
+            metadata.addProperty("message", name);
+            document.add("metadata", object("default", metadata));
+
+            if (error) {
+                document.addProperty("error", true);
+            }
+
+            emit(document);
+        }
+    }
+
+    public static boolean enabled() {
+        return enabled;
+    }
+
+    public static void enableXRay() {
+        xRay = true;
+        enable();
+    }
+
+    public static void enableFile(Path path) {
+        traceFile = path;
+        enable();
+    }
+
+    // Names the run, e.g. "greeneyes cleanup"
+    public static void setCommand(String command) {
+        Tracing.command = command;
+    }
+
+    public static String traceId() {
+        return traceId;
+    }
+
+    public static ExecutionInterceptor interceptor() {
+        return lazyInterceptor.get();
+    }
+
+    public static Phase phase(String name) {
+        if (!enabled) {
+            return NOT_TRACED;
+        }
+
+        Phase phase = new Phase(name, newId());
+        openPhases.add(phase);
+        currentPhase.set(phase);
+
+        return phase;
+    }
+
+    // The parent of an AWS call made on this thread right now
+    static String parentId() {
+        return Option.of(currentPhase.get())
+                .filter(phase -> !phase.ended)
+                .map(phase -> phase.id)
+                .getOrElse(segmentId);
+    }
+
+    static JsonObject subsegment(String name, String id, String parentId, Instant start, Instant end) {
+        JsonObject document = new JsonObject();
+        document.addProperty("name", name);
+        document.addProperty("id", id);
+        document.addProperty("trace_id", traceId);
+        document.addProperty("parent_id", parentId);
+        document.addProperty("type", "subsegment");
+        document.addProperty("start_time", seconds(start));
+        document.addProperty("end_time", seconds(end));
+
+        return document;
+    }
+
+    static void emit(JsonObject document) {
+        lazyExporter.get();
+        queue.add(document);
+    }
+
+    static String newId() {
+        return String.format("%016x", ThreadLocalRandom.current().nextLong());
+    }
+
+    static JsonObject object(String name, JsonObject value) {
+        JsonObject object = new JsonObject();
+        object.add(name, value);
+
+        return object;
+    }
+
+    private static void enable() {
+        if (enabled) {
+            return;
+        }
+
+        enabled = true;
+        // Sent right away so a run that never finishes still shows up
+        emit(segment(true));
+    }
+
+    // Version 1, the epoch seconds of the start of the run in hex, then 96 random bits
+    private static String newTraceId() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        return String.format("1-%08x-%08x%016x", startTime.getEpochSecond(), random.nextInt(), random.nextLong());
+    }
+
+    private static JsonObject segment(boolean inProgress) {
+        JsonObject document = new JsonObject();
+        document.addProperty("name", "superfluid");
+        document.addProperty("id", segmentId);
+        document.addProperty("trace_id", traceId);
+        document.addProperty("start_time", seconds(startTime));
+
+        if (inProgress) {
+            document.addProperty("in_progress", true);
+        } else {
+            document.addProperty("end_time", seconds(Instant.now()));
+        }
+
+        Option.of(command).forEach(value -> {
+            JsonObject annotations = new JsonObject();
+            annotations.addProperty("command", value);
+            document.add("annotations", annotations);
+        });
+
+        return document;
+    }
+
+    // Epoch seconds with microseconds, a BigDecimal so Gson writes it out in full instead of in exponent notation
+    private static BigDecimal seconds(Instant instant) {
+        return BigDecimal.valueOf(instant.getEpochSecond()).add(BigDecimal.valueOf(instant.getNano() / 1000, 6));
+    }
+
+    // X-Ray only accepts letters, numbers, whitespace and a few symbols in names
+    private static String sanitizeName(String name) {
+        String sanitized = name.replaceAll("[^\\p{L}\\p{N}\\s_.:/%&#=+\\\\\\-@]", " ").trim();
+
+        return sanitized.length() > MAX_NAME_LENGTH ? sanitized.substring(0, MAX_NAME_LENGTH) : sanitized;
+    }
+
+    private static Thread startExporter() {
+        Thread exporter = new Thread(Tracing::exportLoop, "superfluid-tracing");
+        exporter.setDaemon(true);
+        exporter.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            // Phases that were still running when the command exited (e.g. with System.exit) end here
+            List.ofAll(openPhases).forEach(phase -> phase.end(true));
+            queue.add(segment(false));
+            queue.add(CLOSE);
+            Try.run(() -> exporter.join(TimeUnit.SECONDS.toMillis(CLOSE_TIMEOUT_SECONDS)));
+
+            if (xRay) {
+                System.err.println(format("X-Ray trace ID: {0}", traceId));
+            }
+        }));
+
+        return exporter;
+    }
+
+    private static void exportLoop() {
+        java.util.List<JsonObject> batch = new ArrayList<>();
+        long lastExportNanos = System.nanoTime();
+
+        while (true) {
+            JsonObject document = Try.of(() -> queue.poll(FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)).getOrNull();
+            boolean closing = (document == CLOSE);
+
+            if ((document != null) && !closing) {
+                batch.add(document);
+                queue.drainTo(batch, MAX_BATCH - batch.size());
+                closing = batch.remove(CLOSE);
+            }
+
+            boolean due = (System.nanoTime() - lastExportNanos) >= TimeUnit.MILLISECONDS.toNanos(FLUSH_INTERVAL_MILLIS);
+
+            // Full batches go right away, anything else waits for the next interval unless we are closing
+            if (!batch.isEmpty() && ((batch.size() >= MAX_BATCH) || due || closing)) {
+                export(List.ofAll(batch).map(GsonHelper.gson()::toJson));
+                batch.clear();
+                lastExportNanos = System.nanoTime();
+            }
+
+            if (closing) {
+                Try.run(() -> Option.of(traceFileWriter).forEach(writer -> Try.run(writer::close)));
+                return;
+            }
+        }
+    }
+
+    // Failures are logged and otherwise ignored, tracing never stops the command
+    private static void export(List<String> documents) {
+        if (traceFile != null) {
+            Try.run(() -> writeToFile(documents))
+                    .onFailure(e -> Shared.log().warn("Failed to write trace segments to {} [{}]", traceFile, e.getMessage()));
+        }
+
+        if (xRay) {
+            Try.of(() -> Shared.xRayClient().putTraceSegments(PutTraceSegmentsRequest.builder()
+                            .traceSegmentDocuments(documents.asJava())
+                            .build()))
+                    // X-Ray always returns the list, hasUnprocessedTraceSegments() is true even when it is empty
+                    .filter(response -> response.unprocessedTraceSegments().isEmpty(), response -> new IllegalStateException(
+                            List.ofAll(response.unprocessedTraceSegments())
+                                    .map(segment -> format("{0}: {1}", segment.errorCode(), segment.message()))
+                                    .mkString(", ")))
+                    .onFailure(e -> Shared.log().warn("Failed to send trace segments to X-Ray [{}]", e.getMessage()));
+        }
+    }
+
+    private static void writeToFile(List<String> documents) throws IOException {
+        if (traceFileWriter == null) {
+            traceFileWriter = Files.newBufferedWriter(traceFile, StandardCharsets.UTF_8);
+        }
+
+        for (String document : documents) {
+            traceFileWriter.write(document);
+            traceFileWriter.write('\n');
+        }
+
+        traceFileWriter.flush();
+    }
+}
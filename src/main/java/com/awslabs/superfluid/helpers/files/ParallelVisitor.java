@@ -0,0 +1,344 @@
+package com.awslabs.superfluid.helpers.files;
+
+import io.vavr.collection.List;
+import io.vavr.control.Option;
+import io.vavr.control.Try;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiFunction;
+
+/**
+ * Walks a file tree on a fork/join pool with the same callbacks as {@link SafeVisitor}. Like Files.walkFileTree links
+ * are not followed.
+ * <p>
+ * Unordered (the default): every directory is its own task and large directories are split into batches, idle
+ * threads steal subdirectories from busy ones. The callbacks are called from the pool threads at the same time so
+ * they have to be thread-safe. Since they run on the threads that do the walking the walk never gets ahead of them.
+ * SKIP_SIBLINGS is best effort since some siblings may already have been visited.
+ * <p>
+ * Ordered: the callbacks are called one at a time on the calling thread, depth first with the entries of each
+ * directory sorted by name, and the results mean exactly what they mean for Files.walkFileTree. The pool reads the
+ * listings of upcoming directories ahead of time, at most readAhead of them at once so a slow consumer holds back the
+ * walk instead of piling up listings in memory.
+ */
+public class ParallelVisitor {
+    public static final int DEFAULT_READ_AHEAD = 256;
+    // Directories with more entries than this are split into several tasks
+    private static final int BATCH_SIZE = 1024;
+
+    private Option<BiFunction<Path, BasicFileAttributes, FileVisitResult>> preVisitDirectoryOption = Option.none();
+    private Option<BiFunction<Path, BasicFileAttributes, FileVisitResult>> visitFileOption = Option.none();
+    private Option<BiFunction<Path, IOException, FileVisitResult>> visitFileFailedOption = Option.none();
+    private Option<BiFunction<Path, IOException, FileVisitResult>> postVisitDirectoryOption = Option.none();
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private boolean ordered = false;
+    private int readAhead = DEFAULT_READ_AHEAD;
+
+    // A directory entry with its attributes, or the reason they couldn't be read
+    private static class Entry {
+        private final Path path;
+        private final Try<BasicFileAttributes> tryAttributes;
+
+        private Entry(Path path) {
+            this.path = path;
+            this.tryAttributes = Try.of(() -> Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS));
+        }
+
+        private boolean isDirectory() {
+            return tryAttributes.map(BasicFileAttributes::isDirectory).getOrElse(false);
+        }
+    }
+
+    public ParallelVisitor() {
+    }
+
+    public ParallelVisitor preVisitDirectory(BiFunction<Path, BasicFileAttributes, FileVisitResult> preVisitDirectory) {
+        this.preVisitDirectoryOption = Option.of(preVisitDirectory);
+        return this;
+    }
+
+    public ParallelVisitor visitFile(BiFunction<Path, BasicFileAttributes, FileVisitResult> visitFile) {
+        this.visitFileOption = Option.of(visitFile);
+        return this;
+    }
+
+    public ParallelVisitor visitFileFailed(BiFunction<Path, IOException, FileVisitResult> visitFileFailed) {
+        this.visitFileFailedOption = Option.of(visitFileFailed);
+        return this;
+    }
+
+    public ParallelVisitor postVisitDirectory(BiFunction<Path, IOException, FileVisitResult> postVisitDirectory) {
+        this.postVisitDirectoryOption = Option.of(postVisitDirectory);
+        return this;
+    }
+
+    public ParallelVisitor parallelism(int parallelism) {
+        this.parallelism = Math.max(parallelism, 1);
+        return this;
+    }
+
+    public ParallelVisitor ordered(boolean ordered) {
+        this.ordered = ordered;
+        return this;
+    }
+
+    public ParallelVisitor readAhead(int readAhead) {
+        this.readAhead = Math.max(readAhead, 0);
+        return this;
+    }
+
+    public Try<Path> walk(Path path) {
+        ForkJoinPool forkJoinPool = new ForkJoinPool(parallelism);
+
+        try {
+            return Try.of(() -> {
+                Entry start = new Entry(path);
+
+                if (ordered) {
+                    new OrderedWalk(forkJoinPool).visit(start, Option.none());
+                } else {
+                    forkJoinPool.invoke(new EntriesTask(List.of(start), new AtomicBoolean(), new AtomicBoolean()));
+                }
+
+                return path;
+            });
+        } finally {
+            forkJoinPool.shutdown();
+        }
+    }
+
+    private FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+        return preVisitDirectoryOption.map(f -> f.apply(dir, attrs)).getOrElse(FileVisitResult.CONTINUE);
+    }
+
+    private FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+        return visitFileOption.map(f -> f.apply(file, attrs)).getOrElse(FileVisitResult.CONTINUE);
+    }
+
+    private FileVisitResult visitFileFailed(Path file, IOException exc) {
+        return visitFileFailedOption.map(f -> f.apply(file, exc)).getOrElse(FileVisitResult.CONTINUE);
+    }
+
+    private FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+        return postVisitDirectoryOption.map(f -> f.apply(dir, exc)).getOrElse(FileVisitResult.CONTINUE);
+    }
+
+    private static IOException ioException(Throwable throwable) {
+        if (throwable instanceof IOException) {
+            return (IOException) throwable;
+        }
+
+        if (throwable instanceof UncheckedIOException) {
+            return ((UncheckedIOException) throwable).getCause();
+        }
+
+        return new IOException(throwable);
+    }
+
+    private static void stopAfter(AtomicBoolean terminated, AtomicBoolean skipSiblings, FileVisitResult fileVisitResult) {
+        if (fileVisitResult == FileVisitResult.TERMINATE) {
+            terminated.set(true);
+        } else if (fileVisitResult == FileVisitResult.SKIP_SIBLINGS) {
+            skipSiblings.set(true);
+        }
+    }
+
+    private static Try<List<Entry>> list(Path dir, boolean sorted) {
+        return Try.of(() -> {
+            java.util.List<Entry> entries = new ArrayList<>();
+
+            try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(dir)) {
+                directoryStream.forEach(path -> entries.add(new Entry(path)));
+            }
+
+            List<Entry> list = List.ofAll(entries);
+
+            return sorted ? list.sortBy(entry -> entry.path.getFileName().toString()) : list;
+        });
+    }
+
+    // Visits a batch of entries from the same directory, the subdirectories are forked
+    private class EntriesTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Entry> entries;
+        private final AtomicBoolean terminated;
+        // Set when a callback returns SKIP_SIBLINGS for one of these entries' siblings
+        private final AtomicBoolean skipSiblings;
+
+        private EntriesTask(List<Entry> entries, AtomicBoolean terminated, AtomicBoolean skipSiblings) {
+            this.entries = entries;
+            this.terminated = terminated;
+            this.skipSiblings = skipSiblings;
+        }
+
+        @Override
+        protected void compute() {
+            if (entries.size() > BATCH_SIZE) {
+                invokeAll(new EntriesTask(entries.take(entries.size() / 2), terminated, skipSiblings),
+                        new EntriesTask(entries.drop(entries.size() / 2), terminated, skipSiblings));
+                return;
+            }
+
+            java.util.List<DirectoryTask> directoryTasks = new ArrayList<>();
+
+            for (Entry entry : entries) {
+                if (terminated.get() || skipSiblings.get()) {
+                    break;
+                }
+
+                if (entry.isDirectory()) {
+                    directoryTasks.add(new DirectoryTask(entry.path, entry.tryAttributes.get(), terminated, skipSiblings));
+                } else if (entry.tryAttributes.isFailure()) {
+                    stopAfter(terminated, skipSiblings, visitFileFailed(entry.path, ioException(entry.tryAttributes.getCause())));
+                } else {
+                    stopAfter(terminated, skipSiblings, visitFile(entry.path, entry.tryAttributes.get()));
+                }
+            }
+
+            invokeAll(directoryTasks);
+        }
+    }
+
+    private class DirectoryTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Path dir;
+        private final BasicFileAttributes attrs;
+        private final AtomicBoolean terminated;
+        private final AtomicBoolean skipSiblings;
+
+        private DirectoryTask(Path dir, BasicFileAttributes attrs, AtomicBoolean terminated, AtomicBoolean skipSiblings) {
+            this.dir = dir;
+            this.attrs = attrs;
+            this.terminated = terminated;
+            this.skipSiblings = skipSiblings;
+        }
+
+        @Override
+        protected void compute() {
+            if (terminated.get() || skipSiblings.get()) {
+                return;
+            }
+
+            FileVisitResult preVisitResult = preVisitDirectory(dir, attrs);
+
+            if (preVisitResult != FileVisitResult.CONTINUE) {
+                stopAfter(terminated, skipSiblings, preVisitResult);
+                return;
+            }
+
+            Try<List<Entry>> tryEntries = list(dir, false);
+
+            if (tryEntries.isFailure()) {
+                stopAfter(terminated, skipSiblings, visitFileFailed(dir, ioException(tryEntries.getCause())));
+                return;
+            }
+
+            new EntriesTask(tryEntries.get(), terminated, new AtomicBoolean()).invoke();
+
+            if (!terminated.get()) {
+                stopAfter(terminated, skipSiblings, postVisitDirectory(dir, null));
+            }
+        }
+    }
+
+    private class OrderedWalk {
+        private final ForkJoinPool forkJoinPool;
+        // Listings that have been started but not consumed yet
+        private final Semaphore readAheadPermits = new Semaphore(readAhead);
+
+        private OrderedWalk(ForkJoinPool forkJoinPool) {
+            this.forkJoinPool = forkJoinPool;
+        }
+
+        // Same contract as walkFileTree, SKIP_SUBTREE is passed up as CONTINUE
+        private FileVisitResult visit(Entry entry, Option<CompletableFuture<Try<List<Entry>>>> listingOption) {
+            if (entry.tryAttributes.isFailure()) {
+                return visitFileFailed(entry.path, ioException(entry.tryAttributes.getCause()));
+            }
+
+            if (!entry.isDirectory()) {
+                return visitFile(entry.path, entry.tryAttributes.get());
+            }
+
+            FileVisitResult preVisitResult = preVisitDirectory(entry.path, entry.tryAttributes.get());
+
+            if (preVisitResult != FileVisitResult.CONTINUE) {
+                listingOption.forEach(this::discard);
+                return preVisitResult == FileVisitResult.SKIP_SUBTREE ? FileVisitResult.CONTINUE : preVisitResult;
+            }
+
+            // Read ahead if it was started, otherwise list the directory right here
+            Try<List<Entry>> tryEntries = listingOption.map(this::consume).getOrElse(() -> list(entry.path, true));
+
+            if (tryEntries.isFailure()) {
+                return visitFileFailed(entry.path, ioException(tryEntries.getCause()));
+            }
+
+            Map<Path, CompletableFuture<Try<List<Entry>>>> listings = readAhead(tryEntries.get());
+
+            for (Entry child : tryEntries.get()) {
+                FileVisitResult childResult = visit(child, Option.of(listings.remove(child.path)));
+
+                if (childResult == FileVisitResult.TERMINATE) {
+                    listings.values().forEach(this::discard);
+                    return childResult;
+                }
+
+                if (childResult == FileVisitResult.SKIP_SIBLINGS) {
+                    break;
+                }
+            }
+
+            listings.values().forEach(this::discard);
+
+            FileVisitResult postVisitResult = postVisitDirectory(entry.path, null);
+
+            return postVisitResult == FileVisitResult.SKIP_SUBTREE ? FileVisitResult.CONTINUE : postVisitResult;
+        }
+
+        // Starts listing as many of the subdirectories as the read ahead limit allows, the rest are listed when reached
+        private Map<Path, CompletableFuture<Try<List<Entry>>>> readAhead(List<Entry> entries) {
+            Map<Path, CompletableFuture<Try<List<Entry>>>> listings = new LinkedHashMap<>();
+
+            for (Entry entry : entries.filter(Entry::isDirectory)) {
+                if (!readAheadPermits.tryAcquire()) {
+                    break;
+                }
+
+                listings.put(entry.path, CompletableFuture.supplyAsync(() -> list(entry.path, true), forkJoinPool));
+            }
+
+            return listings;
+        }
+
+        private Try<List<Entry>> consume(CompletableFuture<Try<List<Entry>>> listing) {
+            try {
+                return listing.join();
+            } finally {
+                readAheadPermits.release();
+            }
+        }
+
+        private void discard(CompletableFuture<Try<List<Entry>>> listing) {
+            listing.cancel(false);
+            readAheadPermits.release();
+        }
+    }
+}
@@ -0,0 +1,341 @@
+package com.awslabs.superfluid.visual;
+
+import com.awslabs.superfluid.helpers.Output;
+import com.awslabs.superfluid.helpers.Shared;
+import com.awslabs.superfluid.helpers.Tracing;
+import io.vavr.Lazy;
+import io.vavr.control.Option;
+import io.vavr.control.Try;
+import org.fusesource.jansi.Ansi;
+
+import java.time.Duration;
+import java.util.LinkedHashSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.text.MessageFormat.format;
+import static org.fusesource.jansi.Ansi.ansi;
+
+/**
+ * Draws the progress of every running operation from a single thread. Worker threads only add events to a lock-free
+ * queue and bump counters, the render thread picks them up at most ten times a second and redraws a block with one
+ * line per running operation and a footer with the API call rate. Finished operations are printed above the block
+ * with a ✔ or ✖ and stay there.
+ * <p>
+ * When standard output isn't a terminal, or the output is JSON Lines, nothing is animated and only the finished lines
+ * are printed. Everything is written through {@link Output}.
+ */
+public class ProgressRenderer {
+    private static final Duration FRAME_INTERVAL = Duration.ofMillis(100);
+    private static final int MAX_VISIBLE_TASKS = 10;
+    private static final int DEFAULT_WIDTH = 100;
+    private static final String FAIL = "✖";
+    private static final String SUCCEED = "✔";
+    // Braille patterns from https://en.wikipedia.org/wiki/Braille_Patterns, in the order they appear to spin forwards
+    private static final String[] SPINNERS = new String[]{"⠈", "⠐", "⠠", "⠄", "⠂", "⠁"};
+
+    private static final Lazy<ProgressRenderer> lazyRenderer = Lazy.of(ProgressRenderer::new);
+
+    private enum Kind {STARTED, UPDATED, SUCCEEDED, FAILED}
+
+    private static class Event {
+        private final Task task;
+        private final Kind kind;
+        private final String message;
+
+        private Event(Task task, Kind kind, String message) {
+            this.task = task;
+            this.kind = kind;
+            this.message = message;
+        }
+    }
+
+    public class Task {
+        private final String unit;
+        private final long startNanos = System.nanoTime();
+        private final LongAdder count = new LongAdder();
+        private final Tracing.Phase phase;
+        // Only touched by whoever holds the output lock
+        private String message;
+
+        private Task(String message, String unit) {
+            this.message = message;
+            this.unit = unit;
+            // Each task is a phase of the trace, the AWS calls made on this thread until it ends belong to it
+            this.phase = Tracing.phase(message);
+        }
+
+        /**
+         * Counts units of work (e.g. objects deleted), the running total and rate are shown next to the task
+         */
+        public void add(long units) {
+            count.add(units);
+        }
+
+        public long count() {
+            return count.sum();
+        }
+
+        public void update(String message) {
+            events.add(new Event(this, Kind.UPDATED, message));
+        }
+
+        public void success(String message) {
+            phase.end(false);
+            finish(new Event(this, Kind.SUCCEEDED, message));
+        }
+
+        public void fail(String message) {
+            phase.end(true);
+            finish(new Event(this, Kind.FAILED, message));
+        }
+    }
+
+    private final Queue<Event> events = new ConcurrentLinkedQueue<>();
+    private final boolean interactive = (Output.format() == Output.Format.TEXT) && (System.console() != null);
+    private final int width = Option.of(System.getenv("COLUMNS"))
+            .flatMap(columns -> Try.of(() -> Integer.parseInt(columns.trim())).toOption())
+            .getOrElse(DEFAULT_WIDTH);
+    private final Object outputLock = new Object();
+
+    // Everything below is only touched while holding the output lock
+    private final Set<Task> running = new LinkedHashSet<>();
+    private final StringBuilder frame = new StringBuilder();
+    private int drawnLines = 0;
+    private int spinnerIndex = 0;
+    // Set after text without a trailing newline (e.g. a prompt) so the block doesn't get drawn on the same line
+    private boolean midLine = false;
+    private long lastRequestCount = 0;
+    private long lastRequestNanos = System.nanoTime();
+    private long requestsPerSecond = 0;
+    private boolean closed = false;
+
+    private ProgressRenderer() {
+        if (!interactive) {
+            return;
+        }
+
+        Thread thread = new Thread(this::renderLoop, "superfluid-progress");
+        thread.setDaemon(true);
+        thread.start();
+
+        // Leave the terminal the way we found it, whatever is left in the queue still gets printed
+        Output.onClose(() -> {
+            synchronized (outputLock) {
+                draw(false);
+                frame.append(showCursor());
+                flushFrame();
+                closed = true;
+            }
+        });
+    }
+
+    public static ProgressRenderer renderer() {
+        return lazyRenderer.get();
+    }
+
+    /**
+     * Writes text from any thread without tearing the progress block, the block is redrawn below it. Until the first
+     * task is started this is just a plain write to standard output.
+     */
+    public static void write(String text) {
+        if (!lazyRenderer.isEvaluated()) {
+            Output.text(text);
+            return;
+        }
+
+        renderer().writeAbove(text);
+    }
+
+    public Task start(String message) {
+        return start(message, null);
+    }
+
+    public Task start(String message, String unit) {
+        Task task = new Task(message, unit);
+        events.add(new Event(task, Kind.STARTED, message));
+
+        return task;
+    }
+
+    private void finish(Event event) {
+        events.add(event);
+
+        if (!interactive) {
+            // Nothing to animate so there is no render thread, print right away
+            synchronized (outputLock) {
+                drain();
+                flushFrame();
+            }
+        }
+    }
+
+    private void writeAbove(String text) {
+        synchronized (outputLock) {
+            clearBlock();
+            drain();
+            frame.append(text);
+            midLine = !text.endsWith(System.lineSeparator()) && !text.endsWith("\n");
+            drawBlock();
+            flushFrame();
+        }
+    }
+
+    private void renderLoop() {
+        while (true) {
+            Try.run(() -> Thread.sleep(FRAME_INTERVAL.toMillis()));
+
+            synchronized (outputLock) {
+                if (closed) {
+                    return;
+                }
+
+                draw(true);
+            }
+        }
+    }
+
+    private void draw(boolean animate) {
+        if (events.isEmpty() && running.isEmpty() && (drawnLines == 0)) {
+            // Nothing happening, don't touch the terminal
+            return;
+        }
+
+        clearBlock();
+        drain();
+
+        if (animate) {
+            spinnerIndex = (spinnerIndex + 1) % SPINNERS.length;
+            drawBlock();
+        }
+
+        flushFrame();
+    }
+
+    // Applies the queued events, finished tasks are printed into the frame permanently
+    private void drain() {
+        Event event;
+
+        while ((event = events.poll()) != null) {
+            switch (event.kind) {
+                case STARTED -> {
+                    running.add(event.task);
+                    // Anything typed in response to a prompt has been entered by the time new work starts
+                    midLine = false;
+                }
+                case UPDATED -> event.task.message = event.message;
+                case SUCCEEDED -> finished(event, "green", SUCCEED);
+                case FAILED -> finished(event, "red", FAIL);
+            }
+        }
+    }
+
+    private void finished(Event event, String color, String symbol) {
+        running.remove(event.task);
+
+        if (interactive) {
+            frame.append(ansi().render(format("@|{0} {1}|@ ", color, symbol)).a(event.message));
+        } else {
+            frame.append(symbol).append(' ').append(event.message);
+        }
+
+        frame.append(System.lineSeparator());
+    }
+
+    private void clearBlock() {
+        if (drawnLines == 0) {
+            return;
+        }
+
+        frame.append(ansi().cursorUpLine(drawnLines).eraseScreen(Ansi.Erase.FORWARD));
+        drawnLines = 0;
+    }
+
+    private void drawBlock() {
+        if (!interactive) {
+            return;
+        }
+
+        if (midLine || running.isEmpty()) {
+            frame.append(showCursor());
+            return;
+        }
+
+        frame.append(hideCursor());
+        int visible = 0;
+
+        for (Task task : running) {
+            if (visible == MAX_VISIBLE_TASKS) {
+                line(format("  … and {0} more", running.size() - visible));
+                break;
+            }
+
+            line(format("{0} {1}{2}", SPINNERS[spinnerIndex], task.message, rate(task)));
+            visible++;
+        }
+
+        line(footer());
+    }
+
+    private String rate(Task task) {
+        if (task.unit == null) {
+            return "";
+        }
+
+        long count = task.count();
+        double seconds = Math.max(System.nanoTime() - task.startNanos, 1) / 1e9;
+
+        return format(" [{0} {1}, {2,number,#}/s]", count, task.unit, count / seconds);
+    }
+
+    private String footer() {
+        // The API call rate is sampled about once a second so it doesn't jump around every frame
+        long now = System.nanoTime();
+        long elapsed = now - lastRequestNanos;
+
+        if (elapsed >= TimeUnit.SECONDS.toNanos(1)) {
+            long requestCount = Shared.rateLimiter().requestCount();
+            requestsPerSecond = ((requestCount - lastRequestCount) * TimeUnit.SECONDS.toNanos(1)) / elapsed;
+            lastRequestCount = requestCount;
+            lastRequestNanos = now;
+        }
+
+        String footer = format("  {0} running, {1} API calls/s", running.size(), requestsPerSecond);
+        // Let the user know when we're running slower than usual because the APIs are throttling us
+        String throttled = Shared.rateLimiter().throttledSummary();
+
+        if (throttled.isEmpty()) {
+            return footer;
+        }
+
+        return format("{0} [throttled: {1}]", footer, throttled);
+    }
+
+    private void line(String text) {
+        // Long lines would wrap and throw off the count of lines to move back up over
+        String visibleText = text.length() >= width ? text.substring(0, width - 1) : text;
+        frame.append(visibleText).append(System.lineSeparator());
+        drawnLines++;
+    }
+
+    private void flushFrame() {
+        if (frame.length() == 0) {
+            return;
+        }
+
+        // One chunk per frame, the renderer is the only thing writing human-readable output while tasks are running
+        Output.text(frame.toString());
+        frame.setLength(0);
+    }
+
+    private static String hideCursor() {
+        return "\033[?25l";
+    }
+
+    private static String showCursor() {
+        return "\033[?25h";
+    }
+}